@@ -0,0 +1,477 @@
+package map;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+/**
+ * 节点存放在数组里的红黑树映射
+ * TreeMap的每个节点都是一个对象，这里把节点拆成几个平行数组（结构体数组），
+ * 节点用下标表示，left、right、parent都是int，颜色放在BitSet里，
+ * 整个映射只有固定的几个数组对象，GC不需要遍历大量节点对象
+ * 下标0代表null，被删除的节点放进空闲链表（用left数组串起来）重复利用
+ * 红黑树的调整逻辑和TreeMap一样
+ */
+@SuppressWarnings("unchecked")
+public class ArenaTreeMap<K, V> implements Map<K, V> {
+
+    private static final int NULL = 0;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int size;
+    private int root = NULL;
+    private Comparator<K> comparator;
+
+    private Object[] keys;
+    private Object[] values;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    /**
+     * 对应位为1是黑色，为0是红色
+     */
+    private final BitSet black = new BitSet();
+    /**
+     * 空闲链表的头节点
+     */
+    private int free = NULL;
+    /**
+     * [1, used)是用过的槽位
+     */
+    private int used = 1;
+
+    public ArenaTreeMap() {
+        this(null);
+    }
+
+    public ArenaTreeMap(Comparator<K> comparator) {
+        this.comparator = comparator;
+        keys = new Object[DEFAULT_CAPACITY];
+        values = new Object[DEFAULT_CAPACITY];
+        left = new int[DEFAULT_CAPACITY];
+        right = new int[DEFAULT_CAPACITY];
+        parent = new int[DEFAULT_CAPACITY];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 1, used, null);
+        Arrays.fill(values, 1, used, null);
+        black.clear();
+        root = NULL;
+        free = NULL;
+        used = 1;
+        size = 0;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        keyNotNullCheck(key);
+        if (root == NULL) {
+            root = allocate(key, value, NULL);
+            size++;
+            afterPut(root);
+            return null;
+        }
+        int parent = root;
+        int node = root;
+        int cmp = 0;
+        while (node != NULL) {
+            parent = node;
+            cmp = compare(key, keyOf(node));
+            if (cmp > 0) {
+                node = right[node];
+            } else if (cmp < 0) {
+                node = left[node];
+            } else {
+                keys[node] = key;
+                V oldValue = valueOf(node);
+                values[node] = value;
+                return oldValue;
+            }
+        }
+        int newNode = allocate(key, value, parent);
+        if (cmp > 0) {
+            right[parent] = newNode;
+        } else {
+            left[parent] = newNode;
+        }
+        size++;
+        afterPut(newNode);
+        return null;
+    }
+
+    @Override
+    public V get(K key) {
+        int node = node(key);
+        return node != NULL ? valueOf(node) : null;
+    }
+
+    @Override
+    public V remove(K key) {
+        int node = node(key);
+        if (node == NULL) return null;
+        V oldValue = valueOf(node);
+        remove(node);
+        return oldValue;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return node(key) != NULL;
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        // 直接顺序扫描数组，空闲的槽位key是null
+        for (int i = 1; i < used; i++) {
+            if (keys[i] != null && valEquals(value, (V) values[i])) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        if (visitor == null || root == NULL) return;
+        int node = root;
+        while (left[node] != NULL) {
+            node = left[node];
+        }
+        for (; node != NULL; node = successor(node)) {
+            if (visitor.visit(keyOf(node), valueOf(node))) return;
+        }
+    }
+
+    private void remove(int node) {
+        size--;
+        if (left[node] != NULL && right[node] != NULL) { // 度为2
+            int s = successor(node);
+            keys[node] = keys[s];
+            values[node] = values[s];
+            node = s;
+        }
+
+        int replacement = left[node] != NULL ? left[node] : right[node];
+        int p = parent[node];
+
+        if (replacement != NULL) { // 度为1
+            parent[replacement] = p;
+            if (p == NULL) {
+                root = replacement;
+            } else if (node == right[p]) {
+                right[p] = replacement;
+            } else {
+                left[p] = replacement;
+            }
+            // 删除节点之后的处理
+            afterRemove(replacement);
+        } else if (p == NULL) { // 度为0，并且是根节点
+            root = NULL;
+        } else { // 度为0
+            if (node == left[p]) {
+                left[p] = NULL;
+            } else {
+                right[p] = NULL;
+            }
+            // 删除节点之后的处理（要用到node的parent，所以最后才回收）
+            afterRemove(node);
+        }
+        release(node);
+    }
+
+    private void afterPut(int node) {
+        int parent = this.parent[node];
+
+        // 添加的是根节点 或者上溢达到了根节点
+        if (parent == NULL) {
+            black(node);
+            return;
+        }
+
+        // 如果父节点是黑色，直接返回
+        if (isBlack(parent)) return;
+
+        // uncle节点
+        int uncle = sibling(parent);
+        // 祖父节点
+        int grand = this.parent[parent];
+        red(grand);
+        if (isRed(uncle)) { // 叔父节点是红色
+            black(parent);
+            black(uncle);
+            // 把祖父节点当做是新添加的节点
+            afterPut(grand);
+            return;
+        }
+
+        if (isLeftChild(parent)) { // L
+            if (isLeftChild(node)) { // LL
+                black(parent);
+            } else { // LR
+                black(node);
+                rotateLeft(parent);
+            }
+            rotateRight(grand);
+        } else { // R
+            if (isLeftChild(node)) { // RL
+                black(node);
+                rotateRight(parent);
+            } else { // RR
+                black(parent);
+            }
+            rotateLeft(grand);
+        }
+    }
+
+    private void afterRemove(int node) {
+        // 如果删除的节点是红色
+        // 或者 用以取代删除节点的子节点是红色
+        if (isRed(node)) {
+            black(node);
+            return;
+        }
+        int parent = this.parent[node];
+        // 删除的是根节点
+        if (parent == NULL) return;
+
+        // 删除的是黑色叶子节点
+        // 判断被删除的node是左还是右
+        boolean left = this.left[parent] == NULL || isLeftChild(node);
+        int sibling = left ? right[parent] : this.left[parent];
+
+        if (left) { // 被删除的节点在左边，兄弟节点在右边
+            if (isRed(sibling)) { // 兄弟节点是红色
+                black(sibling);
+                red(parent);
+                rotateLeft(parent);
+                // 更换兄弟
+                sibling = right[parent];
+            }
+            // 兄弟节点必然是黑色
+            if (isBlack(this.left[sibling]) && isBlack(right[sibling])) {
+                // 兄弟节点没有一个红色子节点，父节点要向下跟兄弟节点合并
+                boolean parentBlack = isBlack(parent);
+                black(parent);
+                red(sibling);
+                if (parentBlack) {
+                    afterRemove(parent);
+                }
+            } else { // 兄弟节点至少有一个红色子节点,向兄弟节点借元素
+                // 兄弟节点的左边是黑色,兄弟要先旋转
+                if (isBlack(right[sibling])) {
+                    rotateRight(sibling);
+                    sibling = right[parent];
+                }
+                color(sibling, isBlack(parent));
+                black(right[sibling]);
+                black(parent);
+                rotateLeft(parent);
+            }
+        } else { // 被删除的节点在右边，兄弟节点在左边
+            if (isRed(sibling)) { // 兄弟节点是红色
+                black(sibling);
+                red(parent);
+                rotateRight(parent);
+                // 更换兄弟
+                sibling = this.left[parent];
+            }
+            // 兄弟节点必然是黑色
+            if (isBlack(this.left[sibling]) && isBlack(right[sibling])) {
+                // 兄弟节点没有一个红色子节点，父节点要向下跟兄弟节点合并
+                boolean parentBlack = isBlack(parent);
+                black(parent);
+                red(sibling);
+                if (parentBlack) {
+                    afterRemove(parent);
+                }
+            } else { // 兄弟节点至少有一个红色子节点,向兄弟节点借元素
+                // 兄弟节点的左边是黑色,兄弟要先旋转
+                if (isBlack(this.left[sibling])) {
+                    rotateLeft(sibling);
+                    sibling = this.left[parent];
+                }
+                color(sibling, isBlack(parent));
+                black(this.left[sibling]);
+                black(parent);
+                rotateRight(parent);
+            }
+        }
+    }
+
+    private int successor(int node) {
+        int p = right[node];
+        if (p != NULL) {
+            while (left[p] != NULL) {
+                p = left[p];
+            }
+            return p;
+        }
+
+        while (parent[node] != NULL && node == right[parent[node]]) {
+            node = parent[node];
+        }
+        return parent[node];
+    }
+
+    private int node(K key) {
+        int node = root;
+        while (node != NULL) {
+            int cmp = compare(key, keyOf(node));
+            if (cmp == 0) return node;
+            node = cmp > 0 ? right[node] : left[node];
+        }
+        return NULL;
+    }
+
+    private void rotateLeft(int grand) {
+        int parent = right[grand];
+        int child = left[parent];
+
+        right[grand] = child;
+        left[parent] = grand;
+
+        afterRotate(grand, parent, child);
+    }
+
+    private void rotateRight(int grand) {
+        int parent = left[grand];
+        int child = right[parent];
+
+        left[grand] = child;
+        right[parent] = grand;
+
+        afterRotate(grand, parent, child);
+    }
+
+    private void afterRotate(int grand, int parent, int child) {
+        // 让parent成为子树的根节点
+        int grandParent = this.parent[grand];
+        this.parent[parent] = grandParent;
+        if (grandParent == NULL) {
+            root = parent;
+        } else if (left[grandParent] == grand) {
+            left[grandParent] = parent;
+        } else {
+            right[grandParent] = parent;
+        }
+
+        // 更新child的parent
+        if (child != NULL) this.parent[child] = grand;
+
+        //更新grand的parent
+        this.parent[grand] = parent;
+    }
+
+    /**
+     * 分配一个槽位，优先使用空闲链表中的
+     */
+    private int allocate(K key, V value, int parent) {
+        int node;
+        if (free != NULL) {
+            node = free;
+            free = left[node];
+        } else {
+            ensureCapacity(used + 1);
+            node = used++;
+        }
+        keys[node] = key;
+        values[node] = value;
+        left[node] = NULL;
+        right[node] = NULL;
+        this.parent[node] = parent;
+        black.clear(node);
+        return node;
+    }
+
+    /**
+     * 回收槽位，放入空闲链表
+     */
+    private void release(int node) {
+        keys[node] = null;
+        values[node] = null;
+        left[node] = free;
+        right[node] = NULL;
+        parent[node] = NULL;
+        free = node;
+    }
+
+    private void ensureCapacity(int capacity) {
+        int oldCapacity = keys.length;
+        if (oldCapacity >= capacity) return;
+
+        // 新容量为旧容量的1.5倍
+        int newCapacity = oldCapacity + (oldCapacity >> 1);
+        keys = Arrays.copyOf(keys, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+        left = Arrays.copyOf(left, newCapacity);
+        right = Arrays.copyOf(right, newCapacity);
+        parent = Arrays.copyOf(parent, newCapacity);
+    }
+
+    private K keyOf(int node) {
+        return (K) keys[node];
+    }
+
+    private V valueOf(int node) {
+        return (V) values[node];
+    }
+
+    private boolean isLeftChild(int node) {
+        int p = parent[node];
+        return p != NULL && left[p] == node;
+    }
+
+    private int sibling(int node) {
+        int p = parent[node];
+        if (p == NULL) return NULL;
+        return left[p] == node ? right[p] : left[p];
+    }
+
+    private int compare(K k1, K k2) {
+        if (comparator != null) {
+            return comparator.compare(k1, k2);
+        }
+        return ((Comparable<K>) k1).compareTo(k2);
+    }
+
+    private void keyNotNullCheck(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null");
+        }
+    }
+
+    private boolean valEquals(V v1, V v2) {
+        return v1 == null ? v2 == null : v1.equals(v2);
+    }
+
+    private void color(int node, boolean isBlack) {
+        if (node == NULL) return;
+        black.set(node, isBlack);
+    }
+
+    private void red(int node) {
+        color(node, false);
+    }
+
+    private void black(int node) {
+        color(node, true);
+    }
+
+    private boolean isBlack(int node) {
+        return node == NULL || black.get(node);
+    }
+
+    private boolean isRed(int node) {
+        return !isBlack(node);
+    }
+}
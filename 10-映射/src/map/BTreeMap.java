@@ -0,0 +1,823 @@
+package map;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * B+树实现的有序映射
+ * 每个节点最多存放maxKeys个key，节点内的key放在数组中连续存储，查找时二分，
+ * 一次查找只需要访问logm(n)个节点，比红黑树少很多次指针跳转（缓存未命中）
+ * 所有的key-value都存放在叶子节点中，叶子节点之间用双向链表串起来，
+ * 遍历和范围查询沿着链表顺序访问数组
+ *
+ * 内部节点的keys[i]是children[i]和children[i + 1]的分隔key：
+ * children[i]中的key都小于keys[i]，children[i + 1]中的key都大于等于keys[i]
+ */
+@SuppressWarnings("unchecked")
+public class BTreeMap<K, V> implements NavigableMap<K, V> {
+
+    private static final int DEFAULT_MAX_KEYS = 64;
+
+    private int size;
+    private Node root;
+    /**
+     * 叶子节点链表的头尾
+     */
+    private Leaf first;
+    private Leaf last;
+    private final int maxKeys;
+    /**
+     * 除了根节点，每个节点至少有这么多key，少于这个数量就要向兄弟节点借或者合并
+     */
+    private final int minKeys;
+    private final Comparator<K> comparator;
+
+    public BTreeMap() {
+        this(DEFAULT_MAX_KEYS, null);
+    }
+
+    public BTreeMap(Comparator<K> comparator) {
+        this(DEFAULT_MAX_KEYS, comparator);
+    }
+
+    /**
+     * @param maxKeys 每个节点最多存放的key的数量，至少为3
+     */
+    public BTreeMap(int maxKeys, Comparator<K> comparator) {
+        if (maxKeys < 3) {
+            throw new IllegalArgumentException("maxKeys must be at least 3");
+        }
+        this.maxKeys = maxKeys;
+        this.minKeys = maxKeys >> 1;
+        this.comparator = comparator;
+    }
+
+    public static <K, V> BTreeMap<K, V> fromSorted(K[] keys, V[] values) {
+        return fromSorted(keys, values, DEFAULT_MAX_KEYS, null);
+    }
+
+    /**
+     * 根据升序的keys、values自底向上批量构建，O(n)
+     * 先把元素均匀地装进叶子节点，再一层一层往上构建内部节点
+     * 如果没有严格升序，就先排序，重复的key保留后出现的value
+     */
+    public static <K, V> BTreeMap<K, V> fromSorted(K[] keys, V[] values, int maxKeys, Comparator<K> comparator) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys.length != values.length");
+        }
+        BTreeMap<K, V> map = new BTreeMap<>(maxKeys, comparator);
+        int n = keys.length;
+        Object[] ks = keys;
+        Object[] vs = values;
+        boolean sorted = true;
+        for (int i = 0; i < n; i++) {
+            map.keyNotNullCheck(keys[i]);
+            if (sorted && i > 0 && map.compare(keys[i - 1], keys[i]) >= 0) {
+                sorted = false;
+            }
+        }
+        if (!sorted) {
+            Entry<K, V>[] entries = SortedEntries.newArray(n);
+            for (int i = 0; i < n; i++) {
+                entries[i] = new Entry<>(keys[i], values[i]);
+            }
+            n = SortedEntries.sortAndDistinct(entries, n, map::compare);
+            ks = new Object[n];
+            vs = new Object[n];
+            for (int i = 0; i < n; i++) {
+                ks[i] = entries[i].key;
+                vs[i] = entries[i].value;
+            }
+        }
+        map.buildFromSorted(ks, vs, n);
+        return map;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        first = null;
+        last = null;
+        size = 0;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        keyNotNullCheck(key);
+        if (root == null) {
+            Leaf leaf = new Leaf(maxKeys);
+            root = first = last = leaf;
+        }
+
+        V oldValue = put(root, key, value);
+        if (root.count > maxKeys) {
+            // 根节点分裂，树长高一层
+            Inner newRoot = new Inner(maxKeys);
+            newRoot.children[0] = root;
+            root = newRoot;
+            split(newRoot, 0);
+        }
+        return oldValue;
+    }
+
+    @Override
+    public V get(K key) {
+        keyNotNullCheck(key);
+        if (root == null) return null;
+        Leaf leaf = leaf(key);
+        int index = search(leaf, key);
+        return index >= 0 ? (V) leaf.values[index] : null;
+    }
+
+    @Override
+    public V remove(K key) {
+        keyNotNullCheck(key);
+        if (root == null) return null;
+
+        V oldValue = remove(root, key);
+        if (root.count == 0) {
+            // 根节点空了，树变矮一层
+            if (root instanceof Inner) {
+                root = ((Inner) root).children[0];
+            } else {
+                clear();
+            }
+        }
+        return oldValue;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        keyNotNullCheck(key);
+        if (root == null) return false;
+        return search(leaf(key), key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        for (Leaf leaf = first; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.count; i++) {
+                if (valEquals(value, (V) leaf.values[i])) return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        if (visitor == null) return;
+        for (Leaf leaf = first; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.count; i++) {
+                if (visitor.visit((K) leaf.keys[i], (V) leaf.values[i])) return;
+            }
+        }
+    }
+
+    @Override
+    public K firstKey() {
+        return first == null ? null : (K) first.keys[0];
+    }
+
+    @Override
+    public K lastKey() {
+        return last == null ? null : (K) last.keys[last.count - 1];
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return floorKey(key, true);
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return ceilingKey(key, true);
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return floorKey(key, false);
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return ceilingKey(key, false);
+    }
+
+    @Override
+    public K pollFirst() {
+        K key = firstKey();
+        if (key != null) remove(key);
+        return key;
+    }
+
+    @Override
+    public K pollLast() {
+        K key = lastKey();
+        if (key != null) remove(key);
+        return key;
+    }
+
+    /**
+     * [fromKey, toKey)范围内的视图
+     */
+    public Map<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    /**
+     * fromKey到toKey范围内的视图
+     * 视图不会复制数据，对视图的修改会反映到原来的BTreeMap上，反之亦然
+     */
+    public Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        keyNotNullCheck(fromKey);
+        keyNotNullCheck(toKey);
+        if (compare(fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive);
+    }
+
+    /**
+     * 小于toKey的部分的视图
+     */
+    public Map<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    public Map<K, V> headMap(K toKey, boolean inclusive) {
+        keyNotNullCheck(toKey);
+        return new SubMap(true, null, true, false, toKey, inclusive);
+    }
+
+    /**
+     * 大于等于fromKey的部分的视图
+     */
+    public Map<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    public Map<K, V> tailMap(K fromKey, boolean inclusive) {
+        keyNotNullCheck(fromKey);
+        return new SubMap(false, fromKey, inclusive, true, null, true);
+    }
+
+    /**
+     * 往node为根的子树中添加，子节点的key超过maxKeys就把它分裂
+     * node自己超过maxKeys的话交给它的父节点（根节点交给put(K, V)）处理
+     * @return 原来的value
+     */
+    private V put(Node node, K key, V value) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = search(leaf, key);
+            if (index >= 0) {
+                V oldValue = (V) leaf.values[index];
+                leaf.keys[index] = key;
+                leaf.values[index] = value;
+                return oldValue;
+            }
+            index = -(index + 1);
+            insert(leaf.keys, leaf.count, index, key);
+            insert(leaf.values, leaf.count, index, value);
+            leaf.count++;
+            size++;
+            return null;
+        }
+
+        Inner inner = (Inner) node;
+        int index = childIndex(inner, key);
+        V oldValue = put(inner.children[index], key, value);
+        if (inner.children[index].count > maxKeys) {
+            split(inner, index);
+        }
+        return oldValue;
+    }
+
+    /**
+     * 把parent.children[index]分裂成两个节点，分隔key和右半部分插入到parent
+     */
+    private void split(Inner parent, int index) {
+        Node child = parent.children[index];
+        Node right;
+        K splitKey;
+        if (child instanceof Leaf) {
+            Leaf leaf = split((Leaf) child);
+            // 叶子节点分裂，右半部分的第一个key复制一份上去作为分隔key
+            splitKey = (K) leaf.keys[0];
+            right = leaf;
+        } else {
+            Inner inner = (Inner) child;
+            // 内部节点分裂，中间的key移动到父节点
+            splitKey = (K) inner.keys[inner.count >> 1];
+            right = split(inner);
+        }
+        insert(parent.keys, parent.count, index, splitKey);
+        insert(parent.children, parent.count + 1, index + 1, right);
+        parent.count++;
+    }
+
+    private Leaf split(Leaf leaf) {
+        int mid = leaf.count >> 1;
+        Leaf right = new Leaf(maxKeys);
+        right.count = leaf.count - mid;
+        System.arraycopy(leaf.keys, mid, right.keys, 0, right.count);
+        System.arraycopy(leaf.values, mid, right.values, 0, right.count);
+        Arrays.fill(leaf.keys, mid, leaf.count, null);
+        Arrays.fill(leaf.values, mid, leaf.count, null);
+        leaf.count = mid;
+
+        // 串到叶子节点链表中
+        right.prev = leaf;
+        right.next = leaf.next;
+        if (leaf.next != null) {
+            leaf.next.prev = right;
+        } else {
+            last = right;
+        }
+        leaf.next = right;
+        return right;
+    }
+
+    private Inner split(Inner inner) {
+        int mid = inner.count >> 1;
+        Inner right = new Inner(maxKeys);
+        right.count = inner.count - mid - 1;
+        System.arraycopy(inner.keys, mid + 1, right.keys, 0, right.count);
+        System.arraycopy(inner.children, mid + 1, right.children, 0, right.count + 1);
+        Arrays.fill(inner.keys, mid, inner.count, null);
+        Arrays.fill(inner.children, mid + 1, inner.count + 1, null);
+        inner.count = mid;
+        return right;
+    }
+
+    /**
+     * 从node为根的子树中删除，删除之后子节点的key少于minKeys就进行修复
+     * @return 被删除的value，没有找到key返回null
+     */
+    private V remove(Node node, K key) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = search(leaf, key);
+            if (index < 0) return null;
+            V oldValue = (V) leaf.values[index];
+            delete(leaf.keys, leaf.count, index);
+            delete(leaf.values, leaf.count, index);
+            leaf.count--;
+            size--;
+            return oldValue;
+        }
+
+        Inner inner = (Inner) node;
+        int index = childIndex(inner, key);
+        Node child = inner.children[index];
+        V oldValue = remove(child, key);
+        if (child.count < minKeys) {
+            fix(inner, index);
+        }
+        return oldValue;
+    }
+
+    /**
+     * parent.children[index]的key太少了（下溢）
+     * 兄弟节点有多余的key就借一个过来，否则和兄弟节点合并
+     */
+    private void fix(Inner parent, int index) {
+        Node left = index > 0 ? parent.children[index - 1] : null;
+        Node right = index < parent.count ? parent.children[index + 1] : null;
+
+        if (left != null && left.count > minKeys) {
+            borrowFromLeft(parent, index);
+        } else if (right != null && right.count > minKeys) {
+            borrowFromRight(parent, index);
+        } else if (left != null) {
+            merge(parent, index - 1);
+        } else if (right != null) {
+            merge(parent, index);
+        }
+    }
+
+    private void borrowFromLeft(Inner parent, int index) {
+        Node child = parent.children[index];
+        Node left = parent.children[index - 1];
+        if (child instanceof Leaf) {
+            Leaf leaf = (Leaf) child;
+            Leaf sibling = (Leaf) left;
+            insert(leaf.keys, leaf.count, 0, sibling.keys[sibling.count - 1]);
+            insert(leaf.values, leaf.count, 0, sibling.values[sibling.count - 1]);
+            sibling.keys[sibling.count - 1] = null;
+            sibling.values[sibling.count - 1] = null;
+            parent.keys[index - 1] = leaf.keys[0];
+        } else {
+            Inner inner = (Inner) child;
+            Inner sibling = (Inner) left;
+            // 父节点的分隔key下来，兄弟节点最大的key上去
+            insert(inner.keys, inner.count, 0, parent.keys[index - 1]);
+            insert(inner.children, inner.count + 1, 0, sibling.children[sibling.count]);
+            parent.keys[index - 1] = sibling.keys[sibling.count - 1];
+            sibling.keys[sibling.count - 1] = null;
+            sibling.children[sibling.count] = null;
+        }
+        child.count++;
+        left.count--;
+    }
+
+    private void borrowFromRight(Inner parent, int index) {
+        Node child = parent.children[index];
+        Node right = parent.children[index + 1];
+        if (child instanceof Leaf) {
+            Leaf leaf = (Leaf) child;
+            Leaf sibling = (Leaf) right;
+            leaf.keys[leaf.count] = sibling.keys[0];
+            leaf.values[leaf.count] = sibling.values[0];
+            delete(sibling.keys, sibling.count, 0);
+            delete(sibling.values, sibling.count, 0);
+            parent.keys[index] = sibling.keys[0];
+        } else {
+            Inner inner = (Inner) child;
+            Inner sibling = (Inner) right;
+            // 父节点的分隔key下来，兄弟节点最小的key上去
+            inner.keys[inner.count] = parent.keys[index];
+            inner.children[inner.count + 1] = sibling.children[0];
+            parent.keys[index] = sibling.keys[0];
+            delete(sibling.keys, sibling.count, 0);
+            delete(sibling.children, sibling.count + 1, 0);
+        }
+        child.count++;
+        right.count--;
+    }
+
+    /**
+     * 把parent.children[index + 1]合并到parent.children[index]
+     */
+    private void merge(Inner parent, int index) {
+        Node left = parent.children[index];
+        Node right = parent.children[index + 1];
+        if (left instanceof Leaf) {
+            Leaf leaf = (Leaf) left;
+            Leaf sibling = (Leaf) right;
+            System.arraycopy(sibling.keys, 0, leaf.keys, leaf.count, sibling.count);
+            System.arraycopy(sibling.values, 0, leaf.values, leaf.count, sibling.count);
+            leaf.count += sibling.count;
+            // 从叶子节点链表中删除
+            leaf.next = sibling.next;
+            if (sibling.next != null) {
+                sibling.next.prev = leaf;
+            } else {
+                last = leaf;
+            }
+        } else {
+            Inner inner = (Inner) left;
+            Inner sibling = (Inner) right;
+            // 父节点的分隔key也要下来
+            inner.keys[inner.count] = parent.keys[index];
+            System.arraycopy(sibling.keys, 0, inner.keys, inner.count + 1, sibling.count);
+            System.arraycopy(sibling.children, 0, inner.children, inner.count + 1, sibling.count + 1);
+            inner.count += sibling.count + 1;
+        }
+        delete(parent.keys, parent.count, index);
+        delete(parent.children, parent.count + 1, index + 1);
+        parent.count--;
+    }
+
+    private Leaf leaf(K key) {
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            node = inner.children[childIndex(inner, key)];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * 二分查找
+     * @return 找到了返回下标，找不到返回-(插入位置 + 1)
+     */
+    private int search(Node node, K key) {
+        int begin = 0;
+        int end = node.count;
+        while (begin < end) {
+            int mid = (begin + end) >>> 1;
+            int cmp = compare(key, (K) node.keys[mid]);
+            if (cmp == 0) return mid;
+            if (cmp > 0) {
+                begin = mid + 1;
+            } else {
+                end = mid;
+            }
+        }
+        return -(begin + 1);
+    }
+
+    /**
+     * key所在的子节点：第一个大于key的分隔key的下标
+     */
+    private int childIndex(Inner inner, K key) {
+        int begin = 0;
+        int end = inner.count;
+        while (begin < end) {
+            int mid = (begin + end) >>> 1;
+            if (compare(key, (K) inner.keys[mid]) < 0) {
+                end = mid;
+            } else {
+                begin = mid + 1;
+            }
+        }
+        return begin;
+    }
+
+    private K floorKey(K key, boolean inclusive) {
+        keyNotNullCheck(key);
+        if (root == null) return null;
+        Leaf leaf = leaf(key);
+        int index = search(leaf, key);
+        if (index >= 0) {
+            if (inclusive) return key(leaf, index);
+            index--;
+        } else {
+            index = -(index + 1) - 1;
+        }
+        if (index >= 0) return key(leaf, index);
+        // 这个叶子节点的key都比较大，前一个叶子节点的最后一个
+        leaf = leaf.prev;
+        return leaf == null ? null : key(leaf, leaf.count - 1);
+    }
+
+    private K ceilingKey(K key, boolean inclusive) {
+        keyNotNullCheck(key);
+        if (root == null) return null;
+        Leaf leaf = leaf(key);
+        int index = search(leaf, key);
+        if (index >= 0) {
+            if (inclusive) return key(leaf, index);
+            index++;
+        } else {
+            index = -(index + 1);
+        }
+        if (index < leaf.count) return key(leaf, index);
+        // 这个叶子节点的key都比较小，下一个叶子节点的第一个
+        leaf = leaf.next;
+        return leaf == null ? null : key(leaf, 0);
+    }
+
+    private K key(Leaf leaf, int index) {
+        return (K) leaf.keys[index];
+    }
+
+    private void buildFromSorted(Object[] keys, Object[] values, int n) {
+        clear();
+        if (n == 0) return;
+
+        // 叶子节点的数量，元素平均分配到每个叶子节点
+        int leafCount = (n + maxKeys - 1) / maxKeys;
+        Node[] level = new Node[leafCount];
+        Object[] mins = new Object[leafCount];
+        int from = 0;
+        Leaf prev = null;
+        for (int i = 0; i < leafCount; i++) {
+            int to = (int) ((long) n * (i + 1) / leafCount);
+            Leaf leaf = new Leaf(maxKeys);
+            leaf.count = to - from;
+            System.arraycopy(keys, from, leaf.keys, 0, leaf.count);
+            System.arraycopy(values, from, leaf.values, 0, leaf.count);
+            leaf.prev = prev;
+            if (prev != null) {
+                prev.next = leaf;
+            } else {
+                first = leaf;
+            }
+            prev = leaf;
+            level[i] = leaf;
+            mins[i] = leaf.keys[0];
+            from = to;
+        }
+        last = prev;
+        size = n;
+
+        // 每个内部节点最多maxKeys + 1个子节点
+        while (level.length > 1) {
+            int parentCount = (level.length + maxKeys) / (maxKeys + 1);
+            Node[] parents = new Node[parentCount];
+            Object[] parentMins = new Object[parentCount];
+            from = 0;
+            for (int i = 0; i < parentCount; i++) {
+                int to = (int) ((long) level.length * (i + 1) / parentCount);
+                Inner inner = new Inner(maxKeys);
+                inner.count = to - from - 1;
+                System.arraycopy(level, from, inner.children, 0, to - from);
+                // 分隔key是右边子树中最小的key
+                System.arraycopy(mins, from + 1, inner.keys, 0, inner.count);
+                parents[i] = inner;
+                parentMins[i] = mins[from];
+                from = to;
+            }
+            level = parents;
+            mins = parentMins;
+        }
+        root = level[0];
+    }
+
+    /**
+     * 在前count个元素中，往index位置插入element
+     */
+    private static void insert(Object[] array, int count, int index, Object element) {
+        System.arraycopy(array, index, array, index + 1, count - index);
+        array[index] = element;
+    }
+
+    /**
+     * 在前count个元素中，删除index位置的元素
+     */
+    private static void delete(Object[] array, int count, int index) {
+        System.arraycopy(array, index + 1, array, index, count - index - 1);
+        array[count - 1] = null;
+    }
+
+    private int compare(K k1, K k2) {
+        if (comparator != null) {
+            return comparator.compare(k1, k2);
+        }
+        return ((Comparable<K>) k1).compareTo(k2);
+    }
+
+    private void keyNotNullCheck(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null");
+        }
+    }
+
+    private boolean valEquals(V v1, V v2) {
+        return v1 == null ? v2 == null : v1.equals(v2);
+    }
+
+    /**
+     * 范围视图，先定位到下边界所在的叶子节点，再沿着叶子节点链表顺序往后读
+     */
+    private class SubMap implements Map<K, V> {
+        private final boolean fromStart;
+        private final K lo;
+        private final boolean loInclusive;
+        private final boolean toEnd;
+        private final K hi;
+        private final boolean hiInclusive;
+
+        SubMap(boolean fromStart, K lo, boolean loInclusive,
+               boolean toEnd, K hi, boolean hiInclusive) {
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+        }
+
+        @Override
+        public int size() {
+            int[] size = {0};
+            traversal(new Visitor<K, V>() {
+                @Override
+                public boolean visit(K key, V value) {
+                    size[0]++;
+                    return false;
+                }
+            });
+            return size[0];
+        }
+
+        @Override
+        public boolean isEmpty() {
+            K key = fromStart ? firstKey() : ceilingKey(lo, loInclusive);
+            return key == null || tooHigh(key);
+        }
+
+        @Override
+        public void clear() {
+            K key;
+            while ((key = fromStart ? firstKey() : ceilingKey(lo, loInclusive)) != null && !tooHigh(key)) {
+                BTreeMap.this.remove(key);
+            }
+        }
+
+        @Override
+        public V put(K key, V value) {
+            keyNotNullCheck(key);
+            if (!inRange(key)) {
+                throw new IllegalArgumentException("key out of range");
+            }
+            return BTreeMap.this.put(key, value);
+        }
+
+        @Override
+        public V get(K key) {
+            keyNotNullCheck(key);
+            return inRange(key) ? BTreeMap.this.get(key) : null;
+        }
+
+        @Override
+        public V remove(K key) {
+            keyNotNullCheck(key);
+            return inRange(key) ? BTreeMap.this.remove(key) : null;
+        }
+
+        @Override
+        public boolean containsKey(K key) {
+            keyNotNullCheck(key);
+            return inRange(key) && BTreeMap.this.containsKey(key);
+        }
+
+        @Override
+        public boolean containsValue(V value) {
+            boolean[] found = {false};
+            traversal(new Visitor<K, V>() {
+                @Override
+                public boolean visit(K key, V v) {
+                    return found[0] = valEquals(value, v);
+                }
+            });
+            return found[0];
+        }
+
+        @Override
+        public void traversal(Visitor<K, V> visitor) {
+            if (visitor == null || root == null) return;
+            Leaf leaf;
+            int index;
+            if (fromStart) {
+                leaf = first;
+                index = 0;
+            } else {
+                leaf = leaf(lo);
+                index = search(leaf, lo);
+                if (index >= 0) {
+                    if (!loInclusive) index++;
+                } else {
+                    index = -(index + 1);
+                }
+            }
+            for (; leaf != null; leaf = leaf.next, index = 0) {
+                for (; index < leaf.count; index++) {
+                    K key = (K) leaf.keys[index];
+                    if (tooHigh(key)) return;
+                    if (visitor.visit(key, (V) leaf.values[index])) return;
+                }
+            }
+        }
+
+        private boolean inRange(K key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        private boolean tooLow(K key) {
+            if (fromStart) return false;
+            int cmp = compare(key, lo);
+            return cmp < 0 || (cmp == 0 && !loInclusive);
+        }
+
+        private boolean tooHigh(K key) {
+            if (toEnd) return false;
+            int cmp = compare(key, hi);
+            return cmp > 0 || (cmp == 0 && !hiInclusive);
+        }
+    }
+
+    private static abstract class Node {
+        /**
+         * 多留一个位置，先插入再分裂
+         */
+        final Object[] keys;
+        int count;
+
+        Node(int maxKeys) {
+            keys = new Object[maxKeys + 1];
+        }
+    }
+
+    private static class Inner extends Node {
+        final Node[] children;
+
+        Inner(int maxKeys) {
+            super(maxKeys);
+            children = new Node[maxKeys + 2];
+        }
+    }
+
+    private static class Leaf extends Node {
+        final Object[] values;
+        Leaf prev;
+        Leaf next;
+
+        Leaf(int maxKeys) {
+            super(maxKeys);
+            values = new Object[maxKeys + 1];
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package map;
+
+import set.Set;
+
+import java.util.Comparator;
+
+/**
+ * 带有反向索引（value -> key的集合）的TreeMap
+ * containsValue、keysForValue不需要遍历整棵树，平均O(1)
+ * key的equals、hashCode要和比较器的结果一致，value需要有正确的equals、hashCode
+ */
+public class BiTreeMap<K, V> implements Map<K, V> {
+
+    private final TreeMap<K, V> map;
+    /**
+     * value -> key的集合，集合用HashMap的key来存放，value不用
+     */
+    private final HashMap<V, HashMap<K, Object>> index = new HashMap<>();
+
+    public BiTreeMap() {
+        this(null);
+    }
+
+    public BiTreeMap(Comparator<K> comparator) {
+        map = new TreeMap<>(comparator);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        index.clear();
+    }
+
+    @Override
+    public V put(K key, V value) {
+        V oldValue = map.put(key, value);
+        // 返回null的时候，有可能是原来的value就是null
+        if (oldValue != null || indexed(null, key)) {
+            unindex(oldValue, key);
+        }
+        HashMap<K, Object> keys = index.get(value);
+        if (keys == null) {
+            keys = new HashMap<>();
+            index.put(value, keys);
+        }
+        keys.put(key, null);
+        return oldValue;
+    }
+
+    @Override
+    public V get(K key) {
+        return map.get(key);
+    }
+
+    @Override
+    public V remove(K key) {
+        V oldValue = map.remove(key);
+        if (oldValue != null || indexed(null, key)) {
+            unindex(oldValue, key);
+        }
+        return oldValue;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        return index.containsKey(value);
+    }
+
+    /**
+     * value对应的所有key（只读）
+     * 返回的是视图，每次访问都重新查找value对应的key，之后的put、remove都能反映出来
+     */
+    public Set<K> keysForValue(V value) {
+        return new KeysForValue(value);
+    }
+
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        map.traversal(visitor);
+    }
+
+    private boolean indexed(V value, K key) {
+        HashMap<K, Object> keys = index.get(value);
+        return keys != null && keys.containsKey(key);
+    }
+
+    private void unindex(V value, K key) {
+        HashMap<K, Object> keys = index.get(value);
+        if (keys == null) return;
+        keys.remove(key);
+        if (keys.isEmpty()) {
+            index.remove(value);
+        }
+    }
+
+    private class KeysForValue implements Set<K> {
+        private final V value;
+
+        KeysForValue(V value) {
+            this.value = value;
+        }
+
+        @Override
+        public int size() {
+            HashMap<K, Object> keys = index.get(value);
+            return keys == null ? 0 : keys.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            HashMap<K, Object> keys = index.get(value);
+            return keys == null || keys.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean contains(K element) {
+            HashMap<K, Object> keys = index.get(value);
+            return keys != null && keys.containsKey(element);
+        }
+
+        @Override
+        public void add(K element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void remove(K element) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void traversal(Visitor<K> visitor) {
+            HashMap<K, Object> keys = index.get(value);
+            if (keys == null || visitor == null) return;
+            keys.traversal(new Map.Visitor<K, Object>() {
+                @Override
+                public boolean visit(K key, Object v) {
+                    return visitor.visit(key);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package map;
+
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 无锁的跳表，可以被多个线程同时读写
+ *
+ * 每一层的next指针都是AtomicMarkableReference，标记位表示这个节点在这一层已经被删除，
+ * 删除分为两步：
+ * 1.把value通过CAS设置为null（逻辑删除，删除操作在这一刻生效）
+ * 2.从上往下标记每一层的next指针，再由find在路过的时候通过CAS把它从链表中摘掉（物理删除）
+ * 添加的时候先通过CAS链接最底层（添加操作在这一刻生效），再逐层往上链接
+ * 查找从当前用到的最高层开始，而不是每次都从MAX_LEVEL开始
+ *
+ * traversal是弱一致的：不会抛出异常，也不会重复访问，但不一定能看到遍历开始之后的修改
+ */
+@SuppressWarnings("unchecked")
+public class ConcurrentSkipListMap<K, V> implements Map<K, V> {
+
+    private static final int MAX_LEVEL = 32;
+    /**
+     * value为null的时候用这个对象代替，因为null表示节点已经被删除
+     */
+    private static final Object NULL_VALUE = new Object();
+    /**
+     * update的计算结果，表示不修改
+     */
+    private static final Object UNCHANGED = new Object();
+
+    private final Node<K, V> head = new Node<>(null, null, MAX_LEVEL);
+    /**
+     * 节点用到的最高层数，只增不减；节点链接到跳表之前先提高它
+     */
+    private final AtomicInteger maxLevel = new AtomicInteger(1);
+    private final LongAdder size = new LongAdder();
+    private final Comparator<K> comparator;
+
+    public ConcurrentSkipListMap() {
+        this(null);
+    }
+
+    public ConcurrentSkipListMap(Comparator<K> comparator) {
+        this.comparator = comparator;
+    }
+
+    @Override
+    public int size() {
+        long size = this.size.sum();
+        if (size < 0) return 0;
+        return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return firstNode() == null;
+    }
+
+    /**
+     * 逐个删除，clear过程中其他线程添加的元素可能会保留下来
+     */
+    @Override
+    public void clear() {
+        for (Node<K, V> node = firstNode(); node != null; node = nextNode(node)) {
+            remove(node.key);
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        keyNotNullCheck(key);
+        Object newValue = mask(value);
+        int level = randomLevel();
+        Node<K, V>[] preds = newNodeArray(Math.max(level, maxLevel.get()));
+        Node<K, V>[] succs = newNodeArray(preds.length);
+        while (true) {
+            if (find(key, preds, succs)) {
+                Node<K, V> node = succs[0];
+                Object oldValue = node.value.get();
+                if (oldValue == null) {
+                    // 正在被其他线程删除，帮它删掉之后重试
+                    markAll(node);
+                    continue;
+                }
+                if (node.value.compareAndSet(oldValue, newValue)) {
+                    return unmask(oldValue);
+                }
+                continue;
+            }
+
+            if (insert(key, newValue, level, preds, succs)) return null;
+        }
+    }
+
+    @Override
+    public V get(K key) {
+        Node<K, V> node = node(key);
+        if (node == null) return null;
+        return unmask(node.value.get());
+    }
+
+    @Override
+    public V remove(K key) {
+        keyNotNullCheck(key);
+        Node<K, V>[] preds = newNodeArray(maxLevel.get());
+        Node<K, V>[] succs = newNodeArray(preds.length);
+        while (true) {
+            if (!find(key, preds, succs)) return null;
+            Node<K, V> node = succs[0];
+            Object oldValue = node.value.get();
+            if (oldValue == null) {
+                // 其他线程已经删除了它
+                markAll(node);
+                return null;
+            }
+            if (node.value.compareAndSet(oldValue, null)) {
+                size.decrement();
+                markAll(node);
+                unlink(node, preds, succs);
+                return unmask(oldValue);
+            }
+        }
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        Node<K, V> node = node(key);
+        return node != null && node.value.get() != null;
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        for (Node<K, V> node = firstNode(); node != null; node = nextNode(node)) {
+            Object v = node.value.get();
+            if (v != null && valEquals(value, unmask(v))) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        if (visitor == null) return;
+        for (Node<K, V> node = firstNode(); node != null; node = nextNode(node)) {
+            Object v = node.value.get();
+            if (v == null) continue;
+            if (visitor.visit(node.key, unmask(v))) return;
+        }
+    }
+
+    /*
+     * 下面这些读-改-写操作都是无锁的原子操作，传入的函数在并发修改的时候可能被调用多次
+     */
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        Object[] oldValue = {null};
+        update(key, (k, v) -> {
+            oldValue[0] = v;
+            return v != null ? UNCHANGED : mask(value);
+        });
+        return (V) oldValue[0];
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Object[] oldValue = {null};
+        Object result = update(key, (k, v) -> {
+            oldValue[0] = v;
+            if (v != null) return UNCHANGED;
+            V newValue = mappingFunction.apply(k);
+            return newValue == null ? UNCHANGED : newValue;
+        });
+        return result == UNCHANGED ? (V) oldValue[0] : (V) result;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Object result = update(key, (k, v) -> v == null ? UNCHANGED : remappingFunction.apply(k, v));
+        return result == UNCHANGED ? null : (V) result;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return (V) update(key, remappingFunction::apply);
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        return (V) update(key, (k, v) -> v == null ? value : remappingFunction.apply(v, value));
+    }
+
+    /**
+     * 读出key当前的value（不存在或者是null都传null）交给function计算，再通过CAS写回，
+     * CAS失败说明期间有其他线程修改了这个key，重新读取、计算
+     * function返回null表示删除，返回UNCHANGED表示不修改，返回NULL_VALUE表示value设置为null
+     * @return function最后一次的返回值
+     */
+    private Object update(K key, BiFunction<? super K, ? super V, Object> function) {
+        keyNotNullCheck(key);
+        int level = randomLevel();
+        Node<K, V>[] preds = newNodeArray(Math.max(level, maxLevel.get()));
+        Node<K, V>[] succs = newNodeArray(preds.length);
+        while (true) {
+            if (find(key, preds, succs)) {
+                Node<K, V> node = succs[0];
+                Object oldValue = node.value.get();
+                if (oldValue == null) {
+                    // 正在被其他线程删除，帮它删掉之后重试
+                    markAll(node);
+                    continue;
+                }
+                Object newValue = function.apply(key, unmask(oldValue));
+                if (newValue == UNCHANGED) return newValue;
+                if (newValue == null) {
+                    if (node.value.compareAndSet(oldValue, null)) {
+                        size.decrement();
+                        markAll(node);
+                        unlink(node, preds, succs);
+                        return null;
+                    }
+                } else if (node.value.compareAndSet(oldValue, newValue)) {
+                    return newValue;
+                }
+                continue;
+            }
+
+            Object newValue = function.apply(key, null);
+            if (newValue == null || newValue == UNCHANGED) return newValue;
+            if (insert(key, newValue, level, preds, succs)) return newValue;
+        }
+    }
+
+    /**
+     * 把新节点插入到find找到的位置，preds、succs至少要有level层
+     * @return 最底层的CAS是否成功，失败说明位置发生了变化，需要重新find
+     */
+    private boolean insert(K key, Object value, int level, Node<K, V>[] preds, Node<K, V>[] succs) {
+        if (level > maxLevel.get()) {
+            maxLevel.accumulateAndGet(level, Math::max);
+        }
+        Node<K, V> newNode = new Node<>(key, value, level);
+        for (int i = 0; i < level; i++) {
+            newNode.next[i].set(succs[i], false);
+        }
+        // 最底层链接成功，添加就生效了
+        if (!preds[0].next[0].compareAndSet(succs[0], newNode, false, false)) {
+            return false;
+        }
+        size.increment();
+        linkUpperLevels(newNode, preds, succs);
+        return true;
+    }
+
+    /**
+     * 在preds.length以下的每一层找到key的前驱和后继，顺便摘掉路过的已经被标记的节点
+     * 比preds.length更高的层不会被查找，也就不会被填写
+     * @return 最底层是否存在key
+     */
+    private boolean find(K key, Node<K, V>[] preds, Node<K, V>[] succs) {
+        retry:
+        while (true) {
+            Node<K, V> pred = head;
+            for (int level = preds.length - 1; level >= 0; level--) {
+                Node<K, V> curr = pred.next[level].getReference();
+                while (curr != null) {
+                    AtomicMarkableReference<Node<K, V>> next = curr.next[level];
+                    // 先读标记再读引用：标记之后引用就不会再变了，读到的succ一定是被标记时的后继
+                    boolean marked = next.isMarked();
+                    Node<K, V> succ = next.getReference();
+                    if (marked) {
+                        // curr已经被删除，摘掉它；pred也被删除的话CAS会失败，从头开始
+                        if (!pred.next[level].compareAndSet(curr, succ, false, false)) {
+                            continue retry;
+                        }
+                        curr = succ;
+                    } else if (compare(curr.key, key) < 0) {
+                        pred = curr;
+                        curr = succ;
+                    } else {
+                        break;
+                    }
+                }
+                preds[level] = pred;
+                succs[level] = curr;
+            }
+            return succs[0] != null && compare(succs[0].key, key) == 0;
+        }
+    }
+
+    /**
+     * 通过find把已经标记的node从每一层摘掉
+     */
+    private void unlink(Node<K, V> node, Node<K, V>[] preds, Node<K, V>[] succs) {
+        if (preds.length < node.next.length) {
+            // 查找开始之后才插入的高层节点
+            preds = newNodeArray(node.next.length);
+            succs = newNodeArray(node.next.length);
+        }
+        find(node.key, preds, succs);
+    }
+
+    private void linkUpperLevels(Node<K, V> node, Node<K, V>[] preds, Node<K, V>[] succs) {
+        for (int level = 1; level < node.next.length; level++) {
+            while (true) {
+                AtomicMarkableReference<Node<K, V>> next = node.next[level];
+                Node<K, V> succ = succs[level];
+                Node<K, V> oldSucc = next.getReference();
+                // 标记过说明新节点已经在被删除了，不用再往上链接
+                if (next.isMarked()) return;
+                if (oldSucc != succ && !next.compareAndSet(oldSucc, succ, false, false)) return;
+                if (preds[level].next[level].compareAndSet(succ, node, false, false)) break;
+                // 前驱发生了变化，重新查找
+                if (!find(node.key, preds, succs) || succs[0] != node) return;
+            }
+        }
+    }
+
+    /**
+     * 从上往下标记node的每一层
+     */
+    private void markAll(Node<K, V> node) {
+        for (int level = node.next.length - 1; level >= 0; level--) {
+            AtomicMarkableReference<Node<K, V>> next = node.next[level];
+            while (!next.isMarked()) {
+                next.attemptMark(next.getReference(), true);
+            }
+        }
+    }
+
+    /**
+     * 只读的查找，跳过被标记的节点，不修改任何指针
+     */
+    private Node<K, V> node(K key) {
+        keyNotNullCheck(key);
+        Node<K, V> pred = head;
+        Node<K, V> curr = null;
+        for (int level = maxLevel.get() - 1; level >= 0; level--) {
+            curr = pred.next[level].getReference();
+            while (curr != null) {
+                AtomicMarkableReference<Node<K, V>> next = curr.next[level];
+                boolean marked = next.isMarked();
+                Node<K, V> succ = next.getReference();
+                if (marked) {
+                    curr = succ;
+                    continue;
+                }
+                int cmp = compare(curr.key, key);
+                if (cmp == 0) return curr;
+                if (cmp > 0) break;
+                pred = curr;
+                curr = succ;
+            }
+        }
+        return null;
+    }
+
+    private Node<K, V> firstNode() {
+        return nextNode(head);
+    }
+
+    /**
+     * 最底层的下一个没有被删除的节点
+     */
+    private Node<K, V> nextNode(Node<K, V> node) {
+        Node<K, V> next = node.next[0].getReference();
+        while (next != null) {
+            if (!next.next[0].isMarked() && next.value.get() != null) return next;
+            next = next.next[0].getReference();
+        }
+        return null;
+    }
+
+    /**
+     * 每一层有1/2的概率再往上一层，每个线程用自己的随机数生成器，不会互相竞争
+     */
+    private int randomLevel() {
+        int level = 1;
+        int random = ThreadLocalRandom.current().nextInt();
+        while ((random & 1) != 0 && level < MAX_LEVEL) {
+            level++;
+            random >>>= 1;
+        }
+        return level;
+    }
+
+    private static <K, V> Node<K, V>[] newNodeArray(int length) {
+        return (Node<K, V>[]) new Node<?, ?>[length];
+    }
+
+    private int compare(K k1, K k2) {
+        if (comparator != null) {
+            return comparator.compare(k1, k2);
+        }
+        return ((Comparable<K>) k1).compareTo(k2);
+    }
+
+    private void keyNotNullCheck(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null");
+        }
+    }
+
+    private Object mask(V value) {
+        return value == null ? NULL_VALUE : value;
+    }
+
+    private V unmask(Object value) {
+        return value == NULL_VALUE ? null : (V) value;
+    }
+
+    private boolean valEquals(V v1, V v2) {
+        return v1 == null ? v2 == null : v1.equals(v2);
+    }
+
+    private static class Node<K, V> {
+        final K key;
+        /**
+         * null表示已经被删除
+         */
+        final AtomicReference<Object> value;
+        final AtomicMarkableReference<Node<K, V>>[] next;
+
+        public Node(K key, Object value, int level) {
+            this.key = key;
+            this.value = new AtomicReference<>(value);
+            this.next = (AtomicMarkableReference<Node<K, V>>[]) new AtomicMarkableReference<?>[level];
+            for (int i = 0; i < level; i++) {
+                next[i] = new AtomicMarkableReference<>(null, false);
+            }
+        }
+    }
+}
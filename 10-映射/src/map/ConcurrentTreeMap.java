@@ -0,0 +1,193 @@
+package map;
+
+import java.util.Comparator;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 适合读多写少场景的线程安全TreeMap
+ * get、containsKey、size先用StampedLock的乐观读，不加锁直接在树上查找，找完再校验期间有没有写操作，
+ * 没有就直接返回；有的话再加读锁重新查一次
+ * 写操作加写锁；traversal、containsValue要读很多节点，直接加读锁
+ */
+@SuppressWarnings("unchecked")
+public class ConcurrentTreeMap<K, V> implements Map<K, V> {
+
+    /**
+     * 红黑树的高度不超过2log(n+1)，int范围内的节点数量不会超过64层，
+     * 超过了说明读到的是正在修改的树，校验一定会失败
+     */
+    private static final int MAX_DEPTH = 64;
+    private static final Object NOT_FOUND = new Object();
+
+    private final TreeMap<K, V> map;
+    private final StampedLock lock = new StampedLock();
+
+    public ConcurrentTreeMap() {
+        this(null);
+    }
+
+    public ConcurrentTreeMap(Comparator<K> comparator) {
+        map = new TreeMap<>(comparator);
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int size = map.size();
+        if (lock.validate(stamp)) return size;
+
+        stamp = lock.readLock();
+        try {
+            return map.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            map.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            return map.put(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V get(K key) {
+        Object value = probe(key);
+        return value == NOT_FOUND ? null : (V) value;
+    }
+
+    @Override
+    public V remove(K key) {
+        long stamp = lock.writeLock();
+        try {
+            return map.remove(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return probe(key) != NOT_FOUND;
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        long stamp = lock.readLock();
+        try {
+            return map.containsValue(value);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 遍历期间持有读锁，visitor里面不能修改这个map
+     */
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        long stamp = lock.readLock();
+        try {
+            map.traversal(visitor);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /*
+     * 读-改-写操作在写锁中完成，是原子的
+     * 写锁不可重入，传入的函数里面不能访问这个map
+     */
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            return map.putIfAbsent(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return map.computeIfAbsent(key, mappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return map.computeIfPresent(key, remappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return map.compute(key, remappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        long stamp = lock.writeLock();
+        try {
+            return map.merge(key, value, remappingFunction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private Object probe(K key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                Object value = map.probe(key, MAX_DEPTH, NOT_FOUND);
+                if (lock.validate(stamp)) return value;
+            } catch (RuntimeException e) {
+                // 校验通过说明树没有被修改，异常是比较器本身抛出的
+                if (lock.validate(stamp)) throw e;
+            }
+        }
+
+        // 乐观读期间有写操作，退化为读锁
+        stamp = lock.readLock();
+        try {
+            return map.probe(key, Integer.MAX_VALUE, NOT_FOUND);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,808 @@
+package map;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 可持久化的TreeMap，数据都在内存里的TreeMap中，读操作和TreeMap一样快
+ * 每次修改都会追加一条记录到预写日志（write-ahead log），
+ * 日志记录的格式：length(4) crc(4) seq(8) op(1) key [hasValue(1) value]
+ *
+ * 组提交：修改操作只是把记录追加到内存中的批次里，
+ * 需要刷盘的时候，第一个到达的线程成为leader，把整个批次写入日志并fsync，
+ * 其他线程等待它完成，一次fsync就能让很多线程的修改同时持久化
+ *
+ * 日志记录累积到一定数量之后，后台线程会把整个映射按顺序写成快照文件（先写临时文件再改名，保证原子性），
+ * 然后清空日志；恢复时先用TreeMap.fromSorted在O(n)内加载快照，再重放日志中序号更大的记录，
+ * 日志末尾不完整或者校验失败的记录（写到一半时崩溃）会被截掉
+ */
+@SuppressWarnings("unchecked")
+public class DurableTreeMap<K, V> implements Map<K, V>, AutoCloseable {
+
+    /**
+     * 什么时候fsync
+     */
+    public enum FsyncPolicy {
+        /**
+         * 每次修改返回之前都保证已经fsync（多个线程的fsync会被合并）
+         */
+        ALWAYS,
+        /**
+         * 记录先积攒在进程内的批次里（最多64KB），由后台线程定期写入日志并fsync，
+         * 进程或者操作系统崩溃时都可能丢失最后一个周期内的修改
+         */
+        INTERVAL,
+        /**
+         * 每次修改返回之前都已经写入日志（不fsync），由操作系统决定什么时候落盘，
+         * 进程崩溃不会丢失修改，操作系统崩溃或者断电可能丢失
+         */
+        NEVER
+    }
+
+    /**
+     * key、value的序列化方式
+     */
+    public interface Codec<T> {
+        Codec<String> STRING = new Codec<String>() {
+            @Override
+            public void write(String value, DataOutput out) throws IOException {
+                out.writeUTF(value);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                return in.readUTF();
+            }
+        };
+
+        Codec<Integer> INTEGER = new Codec<Integer>() {
+            @Override
+            public void write(Integer value, DataOutput out) throws IOException {
+                out.writeInt(value);
+            }
+
+            @Override
+            public Integer read(DataInput in) throws IOException {
+                return in.readInt();
+            }
+        };
+
+        Codec<Long> LONG = new Codec<Long>() {
+            @Override
+            public void write(Long value, DataOutput out) throws IOException {
+                out.writeLong(value);
+            }
+
+            @Override
+            public Long read(DataInput in) throws IOException {
+                return in.readLong();
+            }
+        };
+
+        void write(T value, DataOutput out) throws IOException;
+
+        T read(DataInput in) throws IOException;
+    }
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+
+    private static final int SNAPSHOT_MAGIC = 0x534E4150;
+    private static final String SNAPSHOT_FILE = "snapshot";
+    private static final String SNAPSHOT_TEMP_FILE = "snapshot.tmp";
+    private static final String LOG_FILE = "log";
+    private static final int RECORD_HEADER = 8;
+    /**
+     * 批次超过这个大小，就算不需要fsync也要写入日志
+     */
+    private static final int BATCH_LIMIT = 1 << 16;
+
+    private final Path dir;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final FsyncPolicy fsyncPolicy;
+    private final int snapshotThreshold;
+
+    private final TreeMap<K, V> map;
+    private final FileChannel log;
+    /**
+     * 保护map、batch、seq、unsnapshotted
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * 还没有写入日志的记录
+     */
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    private final DataOutputStream batchOut = new DataOutputStream(batch);
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    /**
+     * 最后一条记录的序号
+     */
+    private long seq;
+    /**
+     * 上次快照之后的记录数
+     */
+    private long unsnapshotted;
+
+    /**
+     * 同一时刻只有一个线程（leader）写日志，其他线程在flushMonitor上等待
+     */
+    private final Object flushMonitor = new Object();
+    private boolean flushing;
+    /**
+     * 已经写入日志的最大序号
+     */
+    private long writtenSeq;
+    /**
+     * 已经fsync的最大序号
+     */
+    private long syncedSeq;
+
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    /**
+     * 后台刷盘或者快照失败之后，所有的修改操作都会失败
+     */
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    public DurableTreeMap(Path dir, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        this(dir, keyCodec, valueCodec, null, FsyncPolicy.ALWAYS, 100, 1 << 20);
+    }
+
+    /**
+     * @param fsyncIntervalMillis INTERVAL策略下fsync的周期
+     * @param snapshotThreshold 日志中累积了这么多条记录之后生成快照
+     */
+    public DurableTreeMap(Path dir, Codec<K> keyCodec, Codec<V> valueCodec, Comparator<K> comparator,
+                          FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, int snapshotThreshold) throws IOException {
+        if (snapshotThreshold < 1) {
+            throw new IllegalArgumentException("snapshotThreshold must be positive");
+        }
+        this.dir = dir;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.fsyncPolicy = fsyncPolicy;
+        this.snapshotThreshold = snapshotThreshold;
+
+        Files.createDirectories(dir);
+        Files.deleteIfExists(dir.resolve(SNAPSHOT_TEMP_FILE));
+        map = loadSnapshot(comparator);
+        log = FileChannel.open(dir.resolve(LOG_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            replayLog();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        writtenSeq = syncedSeq = seq;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DurableTreeMap-" + dir.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            scheduler.scheduleWithFixedDelay(() -> background(() -> flush(lastSeq(), true)),
+                    fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return map.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        long seq;
+        lock.writeLock().lock();
+        try {
+            writeCheck();
+            encode(CLEAR, null, null);
+            map.clear();
+            seq = append();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        afterAppend(seq);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        keyNotNullCheck(key);
+        V oldValue;
+        long seq;
+        lock.writeLock().lock();
+        try {
+            writeCheck();
+            encode(PUT, key, value);
+            oldValue = map.put(key, value);
+            seq = append();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        afterAppend(seq);
+        return oldValue;
+    }
+
+    @Override
+    public V get(K key) {
+        lock.readLock().lock();
+        try {
+            return map.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public V remove(K key) {
+        keyNotNullCheck(key);
+        V oldValue;
+        long seq;
+        lock.writeLock().lock();
+        try {
+            writeCheck();
+            if (!map.containsKey(key)) return null;
+            encode(REMOVE, key, null);
+            oldValue = map.remove(key);
+            seq = append();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        afterAppend(seq);
+        return oldValue;
+    }
+
+    /*
+     * 下面这些读-改-写操作在写锁内完成，只有真正修改了的时候才写日志
+     */
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return logged(key, change -> {
+            V oldValue = map.putIfAbsent(key, value);
+            // 原来的value是null的话也会被替换
+            change.applied = oldValue == null;
+            change.newValue = value;
+            return oldValue;
+        });
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        return logged(key, change -> map.computeIfAbsent(key,
+                k -> change.apply(null, mappingFunction.apply(k))));
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return logged(key, change -> map.computeIfPresent(key,
+                (k, oldValue) -> change.apply(oldValue, remappingFunction.apply(k, oldValue))));
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return logged(key, change -> map.compute(key,
+                (k, oldValue) -> change.apply(oldValue, remappingFunction.apply(k, oldValue))));
+    }
+
+    /**
+     * 用compute实现，这样不管是否调用了remappingFunction都能拿到新的value
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        return logged(key, change -> map.compute(key, (k, oldValue) ->
+                change.apply(oldValue, oldValue == null ? value : remappingFunction.apply(oldValue, value))));
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        lock.readLock().lock();
+        try {
+            return map.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        lock.readLock().lock();
+        try {
+            return map.containsValue(value);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 遍历时持有读锁，visitor里面不能修改这个map
+     */
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        lock.readLock().lock();
+        try {
+            map.traversal(visitor);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 把目前为止的修改写入日志并fsync
+     */
+    public void sync() {
+        writeCheck();
+        flush(lastSeq(), true);
+    }
+
+    /**
+     * 立即生成快照，然后清空日志
+     */
+    public void snapshot() {
+        writeCheck();
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 把所有的修改fsync之后关闭，之后不能再修改
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (failure == null) flush(lastSeq(), true);
+        } finally {
+            log.close();
+        }
+    }
+
+    /**
+     * 在写锁中把下一条记录编码到record，修改内存中的map之前调用，
+     * 编码失败（比如writeUTF的字符串超过64KB）的话map和批次都没有变化
+     */
+    private void encode(byte op, K key, V value) {
+        try {
+            record.reset();
+            recordOut.writeLong(seq + 1);
+            recordOut.writeByte(op);
+            if (op != CLEAR) keyCodec.write(key, recordOut);
+            if (op == PUT) {
+                recordOut.writeBoolean(value != null);
+                if (value != null) valueCodec.write(value, recordOut);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 在写锁中把encode好的记录追加到批次
+     * @return 记录的序号
+     */
+    private long append() {
+        CRC32 crc = new CRC32();
+        byte[] bytes = record.toByteArray();
+        crc.update(bytes);
+        try {
+            batchOut.writeInt(bytes.length);
+            batchOut.writeInt((int) crc.getValue());
+            batchOut.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        unsnapshotted++;
+        return ++seq;
+    }
+
+    /**
+     * 在写锁内对内存中的TreeMap执行operation（只查找一次），
+     * 再根据size的变化和change里记下的新旧value追加PUT或者REMOVE记录
+     */
+    private V logged(K key, Function<Change<V>, V> operation) {
+        keyNotNullCheck(key);
+        Change<V> change = new Change<>();
+        V result;
+        long seq;
+        lock.writeLock().lock();
+        try {
+            writeCheck();
+            int size = map.size();
+            result = operation.apply(change);
+            int delta = map.size() - size;
+            // size没变、也没有设置新的value，说明map没有被修改
+            if (delta == 0 && (!change.applied || change.newValue == null)) return result;
+            try {
+                if (delta < 0) {
+                    encode(REMOVE, key, null);
+                } else {
+                    encode(PUT, key, change.newValue);
+                }
+            } catch (RuntimeException e) {
+                // 修改之后才知道要写什么记录，编码失败就撤销内存中的修改
+                if (delta > 0) {
+                    map.remove(key);
+                } else {
+                    map.put(key, change.oldValue);
+                }
+                throw e;
+            }
+            seq = append();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        afterAppend(seq);
+        return result;
+    }
+
+    /**
+     * 按照fsync策略等待记录持久化，必要的时候触发快照
+     */
+    private void afterAppend(long seq) {
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            flush(seq, true);
+        } else if (fsyncPolicy == FsyncPolicy.NEVER || batchSize() >= BATCH_LIMIT) {
+            flush(seq, false);
+        }
+        if (unsnapshotted() >= snapshotThreshold && snapshotScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(() -> background(() -> {
+                    try {
+                        writeSnapshot();
+                    } finally {
+                        snapshotScheduled.set(false);
+                    }
+                }));
+            } catch (RuntimeException e) {
+                // 已经关闭了
+                snapshotScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 保证序号<=seq的记录已经写入日志（force为true时还要fsync）
+     * 已经有leader在写的话就等它写完，再看看是否还需要自己当leader
+     */
+    private void flush(long seq, boolean force) {
+        if (!lead(seq, force)) return;
+        long last = seq;
+        try {
+            byte[] bytes;
+            lock.writeLock().lock();
+            try {
+                bytes = batch.toByteArray();
+                batch.reset();
+                last = this.seq;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            if (force) log.force(false);
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        } finally {
+            synchronized (flushMonitor) {
+                if (failure == null) {
+                    writtenSeq = last;
+                    if (force) syncedSeq = last;
+                }
+                flushing = false;
+                flushMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 等待成为leader
+     * @return false表示不需要再写了
+     */
+    private boolean lead(long seq, boolean force) {
+        synchronized (flushMonitor) {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    if (failure != null) throw new UncheckedIOException(failure);
+                    if ((force ? syncedSeq : writtenSeq) >= seq) return false;
+                    if (!flushing) {
+                        flushing = true;
+                        return true;
+                    }
+                    try {
+                        flushMonitor.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 生成快照：持有leader身份（期间没有人写日志），在写锁中复制整个映射，
+     * 写完快照之后日志中的记录都已经包含在快照里了，可以清空
+     */
+    private void writeSnapshot() throws IOException {
+        lead(Long.MAX_VALUE, true);
+        long last = -1;
+        try {
+            int n;
+            K[] keys;
+            V[] values;
+            lock.writeLock().lock();
+            try {
+                n = map.size();
+                keys = (K[]) new Object[n];
+                values = (V[]) new Object[n];
+                TreeMap<K, V>.Cursor cursor = map.cursor();
+                int i = 0;
+                for (boolean valid = cursor.first(); valid; valid = cursor.next()) {
+                    keys[i] = cursor.key();
+                    values[i] = cursor.value();
+                    i++;
+                }
+                // 批次中的记录也包含在快照里了
+                batch.reset();
+                last = seq;
+                unsnapshotted = 0;
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            Path temp = dir.resolve(SNAPSHOT_TEMP_FILE);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new CheckedOutputStream(Channels.newOutputStream(channel), crc)));
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeLong(last);
+                out.writeInt(n);
+                for (int i = 0; i < n; i++) {
+                    keyCodec.write(keys[i], out);
+                    out.writeBoolean(values[i] != null);
+                    if (values[i] != null) valueCodec.write(values[i], out);
+                }
+                out.flush();
+                out = new DataOutputStream(Channels.newOutputStream(channel));
+                out.writeLong(crc.getValue());
+                channel.force(true);
+            }
+            Files.move(temp, dir.resolve(SNAPSHOT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // 改名是对目录的修改，目录fsync之后新快照才算持久化，然后才能清空日志
+            try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+                directory.force(true);
+            }
+
+            log.truncate(0);
+            log.position(0);
+            log.force(true);
+        } catch (IOException | RuntimeException e) {
+            if (e instanceof IOException) failure = (IOException) e;
+            throw e;
+        } finally {
+            synchronized (flushMonitor) {
+                if (failure == null && last >= 0) {
+                    writtenSeq = syncedSeq = last;
+                }
+                flushing = false;
+                flushMonitor.notifyAll();
+            }
+        }
+    }
+
+    private TreeMap<K, V> loadSnapshot(Comparator<K> comparator) throws IOException {
+        Path path = dir.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(path)) return new TreeMap<>(comparator);
+
+        CRC32 crc = new CRC32();
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < 8) throw new IOException("corrupted snapshot");
+        crc.update(bytes, 0, bytes.length - 8);
+        if (ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong() != crc.getValue()) {
+            throw new IOException("corrupted snapshot");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("corrupted snapshot");
+        seq = in.readLong();
+        int n = in.readInt();
+        K[] keys = (K[]) new Object[n];
+        V[] values = (V[]) new Object[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = keyCodec.read(in);
+            values[i] = in.readBoolean() ? valueCodec.read(in) : null;
+        }
+        // 快照是按顺序写的，O(n)构建
+        return TreeMap.fromSorted(keys, values, comparator);
+    }
+
+    /**
+     * 重放日志中序号比快照大的记录，截掉末尾不完整的记录
+     */
+    private void replayLog() throws IOException {
+        long length = log.size();
+        long valid = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(log.position(0))));
+        try {
+            while (valid + RECORD_HEADER <= length) {
+                int size = in.readInt();
+                int checksum = in.readInt();
+                if (size <= 0 || valid + RECORD_HEADER + size > length) break;
+                byte[] bytes = new byte[size];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if ((int) crc.getValue() != checksum) break;
+                apply(bytes);
+                valid += RECORD_HEADER + size;
+            }
+        } catch (EOFException e) {
+            // 末尾的记录不完整
+        }
+        if (valid < length) {
+            log.truncate(valid);
+            log.force(true);
+        }
+        log.position(valid);
+    }
+
+    private void apply(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        long recordSeq = in.readLong();
+        byte op = in.readByte();
+        // 已经包含在快照里了
+        if (recordSeq <= seq) return;
+        switch (op) {
+            case PUT:
+                K key = keyCodec.read(in);
+                map.put(key, in.readBoolean() ? valueCodec.read(in) : null);
+                break;
+            case REMOVE:
+                map.remove(keyCodec.read(in));
+                break;
+            case CLEAR:
+                map.clear();
+                break;
+            default:
+                throw new IOException("unknown log record: " + op);
+        }
+        seq = recordSeq;
+        unsnapshotted++;
+    }
+
+    private void background(IORunnable runnable) {
+        try {
+            runnable.run();
+        } catch (IOException e) {
+            failure = e;
+        } catch (UncheckedIOException e) {
+            failure = e.getCause();
+        }
+    }
+
+    private long lastSeq() {
+        lock.readLock().lock();
+        try {
+            return seq;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int batchSize() {
+        lock.readLock().lock();
+        try {
+            return batch.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long unsnapshotted() {
+        lock.readLock().lock();
+        try {
+            return unsnapshotted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void writeCheck() {
+        if (closed) {
+            throw new IllegalStateException("map is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    private void keyNotNullCheck(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null");
+        }
+    }
+
+    private interface IORunnable {
+        void run() throws IOException;
+    }
+
+    /**
+     * 读-改-写操作传给TreeMap的函数看到的旧value和算出来的新value
+     */
+    private static final class Change<V> {
+        boolean applied;
+        V oldValue;
+        V newValue;
+
+        V apply(V oldValue, V newValue) {
+            applied = true;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+            return newValue;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 每个元素都可以有自己的存活时间（TTL）的映射
+ *
+ * 过期时间用分层时间轮管理：时间被划分为固定长度的tick，一共LEVELS层，每层64个桶，
+ * 第0层的每个桶对应1个tick，第1层对应64个tick，第2层对应64^2个tick……
+ * 元素根据距离过期还有多久放进对应层的桶里，桶是侵入式的双向循环链表，添加、删除都是O(1)
+ * 时间每前进1个tick，就处理第0层的一个桶（其中的元素都过期了）；
+ * 每前进64个tick，就把第1层的一个桶里的元素重新分配到第0层（降级），更高的层以此类推
+ *
+ * 过期的元素有两种清理方式：
+ * 1.读的时候发现已经过期，立即删除（惰性删除）
+ * 2.后台线程每个tick推进一次时间轮，删除到期的元素（第一次放入会过期的元素时才启动这个线程）
+ * 被清理的过期元素会成批地交给RemovalListener（调用listener的时候不持有锁）
+ */
+public class ExpiringMap<K, V> implements Map<K, V>, AutoCloseable {
+
+    /**
+     * 接收过期的元素
+     */
+    public interface RemovalListener<K, V> {
+        void onExpiration(List<Entry<K, V>> entries);
+    }
+
+    private static final int LEVELS = 5;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    /**
+     * 时间轮能直接表示的最大tick数，更远的放在最高层的桶里，降级时再重新分配
+     */
+    private static final long SPAN = 1L << (LEVELS * SLOT_BITS);
+    /**
+     * 不会过期
+     */
+    private static final long NEVER = Long.MAX_VALUE;
+
+    private final HashMap<K, Node<K, V>> map = new HashMap<>();
+    /**
+     * 每个桶是一个哨兵节点，元素串成双向循环链表
+     */
+    @SuppressWarnings("unchecked")
+    private final Node<K, V>[][] wheel = (Node<K, V>[][]) new Node<?, ?>[LEVELS][SLOTS];
+    private final long tickNanos;
+    private final long startNanos;
+    /**
+     * 已经处理完的tick
+     */
+    private long currentTick;
+    private final long defaultTtlNanos;
+    private final RemovalListener<K, V> listener;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * 后台清理线程，没有会过期的元素时不需要启动
+     */
+    private ScheduledExecutorService reaper;
+    private boolean closed;
+
+    /**
+     * 元素默认不会过期
+     */
+    public ExpiringMap() {
+        this(0, TimeUnit.MILLISECONDS, 100, TimeUnit.MILLISECONDS, null);
+    }
+
+    /**
+     * @param defaultTtl put(key, value)使用的存活时间，<=0表示不会过期
+     */
+    public ExpiringMap(long defaultTtl, TimeUnit unit) {
+        this(defaultTtl, unit, 100, TimeUnit.MILLISECONDS, null);
+    }
+
+    /**
+     * @param tick 时间轮的精度，后台线程清理的周期
+     */
+    public ExpiringMap(long defaultTtl, TimeUnit unit, long tick, TimeUnit tickUnit,
+                       RemovalListener<K, V> listener) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        this.defaultTtlNanos = defaultTtl <= 0 ? 0 : unit.toNanos(defaultTtl);
+        this.tickNanos = tickUnit.toNanos(tick);
+        this.listener = listener;
+        this.startNanos = System.nanoTime();
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Node<K, V> sentinel = new Node<>(null, null, NEVER);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                wheel[level][slot] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * 可能包含已经过期、但还没有被清理的元素
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return map.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 清空不会通知listener
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            map.clear();
+            for (Node<K, V>[] slots : wheel) {
+                for (Node<K, V> sentinel : slots) {
+                    sentinel.prev = sentinel;
+                    sentinel.next = sentinel;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 使用默认的存活时间
+     */
+    @Override
+    public V put(K key, V value) {
+        return put(key, value, defaultTtlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param ttl 存活时间，<=0表示不会过期
+     */
+    public V put(K key, V value, long ttl, TimeUnit unit) {
+        long now = System.nanoTime();
+        long expireAt = expireAt(now, ttl, unit);
+        List<Entry<K, V>> expired = null;
+        V oldValue = null;
+        lock.lock();
+        try {
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                unschedule(node);
+                if (expired(node, now)) {
+                    expired = expired(null, node);
+                } else {
+                    oldValue = node.value;
+                }
+                node.value = value;
+                node.expireAt = expireAt;
+            } else {
+                node = new Node<>(key, value, expireAt);
+                map.put(key, node);
+            }
+            if (expireAt != NEVER) startReaper(now);
+            schedule(node, currentTick + 1);
+        } finally {
+            lock.unlock();
+        }
+        fireExpired(expired);
+        return oldValue;
+    }
+
+    @Override
+    public V get(K key) {
+        long now = System.nanoTime();
+        List<Entry<K, V>> expired = null;
+        V value = null;
+        lock.lock();
+        try {
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                if (expired(node, now)) {
+                    expired = expired(null, evict(node));
+                } else {
+                    value = node.value;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        fireExpired(expired);
+        return value;
+    }
+
+    /**
+     * 删除已经过期的元素返回null
+     */
+    @Override
+    public V remove(K key) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            Node<K, V> node = map.remove(key);
+            if (node == null) return null;
+            unschedule(node);
+            return expired(node, now) ? null : node.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        long now = System.nanoTime();
+        List<Entry<K, V>> expired = null;
+        boolean contains = false;
+        lock.lock();
+        try {
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                if (expired(node, now)) {
+                    expired = expired(null, evict(node));
+                } else {
+                    contains = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        fireExpired(expired);
+        return contains;
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        boolean[] found = {false};
+        traversal(new Visitor<K, V>() {
+            @Override
+            public boolean visit(K key, V v) {
+                return found[0] = value == null ? v == null : value.equals(v);
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * 跳过已经过期的元素，遍历时持有锁，visitor里面不能修改这个map
+     */
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        if (visitor == null) return;
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            map.traversal(new Visitor<K, Node<K, V>>() {
+                @Override
+                public boolean visit(K key, Node<K, V> node) {
+                    return !expired(node, now) && visitor.visit(key, node.value);
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 停止后台清理线程，之后只有惰性删除
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService reaper;
+        lock.lock();
+        try {
+            closed = true;
+            reaper = this.reaper;
+        } finally {
+            lock.unlock();
+        }
+        if (reaper != null) reaper.shutdownNow();
+    }
+
+    /**
+     * 在锁内启动后台清理线程
+     * 在此之前时间轮里没有元素，也没有人推进它，直接把它推进到当前时间
+     */
+    private void startReaper(long now) {
+        if (reaper != null || closed) return;
+        currentTick = Math.max(currentTick, (now - startNanos) / tickNanos);
+        reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ExpiringMap-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::expire, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 把时间轮推进到当前时间，清理到期的元素
+     */
+    private void expire() {
+        List<Entry<K, V>> expired = null;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            long nowTick = (now - startNanos) / tickNanos;
+            if (map.isEmpty()) {
+                currentTick = Math.max(currentTick, nowTick);
+                return;
+            }
+            while (currentTick < nowTick) {
+                currentTick++;
+                // 从高层往低层降级，低层的桶可能会收到高层降下来的元素
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((currentTick & ((1L << (level * SLOT_BITS)) - 1)) != 0) continue;
+                    cascade(wheel[level][slot(currentTick, level)]);
+                }
+                Node<K, V> sentinel = wheel[0][slot(currentTick, 0)];
+                while (sentinel.next != sentinel) {
+                    Node<K, V> node = sentinel.next;
+                    if (expired(node, now)) {
+                        expired = expired(expired, evict(node));
+                    } else {
+                        // 再确认一次确实到期了，没到期的放回时间轮，不会被提前删除
+                        unschedule(node);
+                        schedule(node, currentTick + 1);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        fireExpired(expired);
+    }
+
+    /**
+     * 把桶里的元素按照剩余时间重新分配到低层
+     */
+    private void cascade(Node<K, V> sentinel) {
+        Node<K, V> node = sentinel.next;
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        while (node != sentinel) {
+            Node<K, V> next = node.next;
+            schedule(node, currentTick);
+            node = next;
+        }
+    }
+
+    /**
+     * 根据过期时间把node放进时间轮，最早放在第tick个tick
+     */
+    private void schedule(Node<K, V> node, long tick) {
+        if (node.expireAt == NEVER) return;
+        long expireTick = (node.expireAt - startNanos + tickNanos - 1) / tickNanos;
+        expireTick = Math.max(expireTick, tick);
+        long delta = expireTick - currentTick;
+        if (delta >= SPAN) {
+            expireTick = currentTick + SPAN - 1;
+            delta = SPAN - 1;
+        }
+        int level = 0;
+        while (delta >= 1L << ((level + 1) * SLOT_BITS)) {
+            level++;
+        }
+        Node<K, V> sentinel = wheel[level][slot(expireTick, level)];
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    private void unschedule(Node<K, V> node) {
+        if (node.prev == null) return;
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private Node<K, V> evict(Node<K, V> node) {
+        map.remove(node.key);
+        unschedule(node);
+        return node;
+    }
+
+    /**
+     * @return ttl之后的时间点，ttl<=0或者太大（schedule计算tick时会溢出）都当作不会过期
+     */
+    private long expireAt(long now, long ttl, TimeUnit unit) {
+        if (ttl <= 0) return NEVER;
+        // toNanos溢出的时候返回Long.MAX_VALUE，同样会被当作不会过期
+        long ttlNanos = unit.toNanos(ttl);
+        if (ttlNanos >= NEVER - tickNanos - (now - startNanos)) return NEVER;
+        return now + ttlNanos;
+    }
+
+    private static int slot(long tick, int level) {
+        return (int) (tick >>> (level * SLOT_BITS)) & SLOT_MASK;
+    }
+
+    private boolean expired(Node<K, V> node, long now) {
+        return node.expireAt != NEVER && node.expireAt - now <= 0;
+    }
+
+    private List<Entry<K, V>> expired(List<Entry<K, V>> expired, Node<K, V> node) {
+        if (listener == null) return null;
+        if (expired == null) expired = new ArrayList<>();
+        expired.add(new Entry<>(node.key, node.value));
+        return expired;
+    }
+
+    private void fireExpired(List<Entry<K, V>> expired) {
+        if (expired != null) {
+            listener.onExpiration(expired);
+        }
+    }
+
+    private static class Node<K, V> {
+        K key;
+        V value;
+        /**
+         * System.nanoTime()的时间点
+         */
+        long expireAt;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        public Node(K key, V value, long expireAt) {
+            this.key = key;
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package map;
+
+/**
+ * 4位的Count-Min Sketch，用很少的内存估计元素最近被访问的频率
+ * 每个long存放16个4位的计数器（最大15），每个元素对应4个计数器，估计值取其中最小的
+ * 累计增加了sampleSize次之后，所有计数器减半（老化），让频率反映最近的访问情况
+ */
+class FrequencySketch<E> {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param maximumSize 缓存的容量
+     */
+    FrequencySketch(int maximumSize) {
+        int size = LongLongMap.tableSizeFor(Math.max(maximumSize, 1));
+        table = new long[size];
+        tableMask = size - 1;
+        sampleSize = maximumSize <= Integer.MAX_VALUE / 10 ? 10 * Math.max(maximumSize, 1) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * 估计e的频率，0~15
+     */
+    int frequency(E e) {
+        int hash = spread(e == null ? 0 : e.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * e的频率加1
+     */
+    void increment(E e) {
+        int hash = spread(e == null ? 0 : e.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * table[i]中的第j个计数器加1，已经是15的话不变
+     */
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((table[i] & mask) != mask) {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 所有计数器减半，奇数计数器丢掉的1/2也从additions中扣掉
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions = (additions - (odd >>> 2)) >>> 1;
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> 32;
+        return ((int) hash) & tableMask;
+    }
+
+    /**
+     * 对hashCode再做一次扰动，避免质量差的hashCode集中在少数计数器上
+     */
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
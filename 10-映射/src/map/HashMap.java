@@ -0,0 +1,399 @@
+package map;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+
+/**
+ * 哈希表：数组 + 红黑树
+ * 每个桶(table[index])存放的是一棵红黑树的根节点，
+ * 哈希冲突很严重的时候，单个桶的查找也只需要O(logn)
+ */
+public class HashMap<K, V> extends RedBlackTree<HashMap.Node<K, V>> implements Map<K, V> {
+
+    private static final int DEFAULT_CAPACITY = 1 << 4;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    private int size;
+    private Node<K, V>[] table;
+
+    public HashMap() {
+        table = newTable(DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        if (size == 0) return;
+        size = 0;
+        for (int i = 0; i < table.length; i++) {
+            table[i] = null;
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        resize();
+
+        int index = index(key);
+        // 取出index位置的红黑树根节点
+        Node<K, V> root = table[index];
+        if (root == null) {
+            root = new Node<>(hash(key), key, value, null);
+            table[index] = root;
+            size++;
+            afterPut(root);
+            return null;
+        }
+
+        // 添加新的节点到红黑树上面
+        Node<K, V> parent = root;
+        Node<K, V> node = root;
+        int cmp = 0;
+        K k1 = key;
+        int h1 = hash(k1);
+        Node<K, V> result = null;
+        boolean searched = false; // 是否已经搜索过这个key
+        do {
+            parent = node;
+            K k2 = node.key;
+            int h2 = node.hash;
+            if (h1 > h2) {
+                cmp = 1;
+            } else if (h1 < h2) {
+                cmp = -1;
+            } else if (Objects.equals(k1, k2)) {
+                cmp = 0;
+            } else if (k1 != null && k2 != null
+                    && k1.getClass() == k2.getClass()
+                    && k1 instanceof Comparable
+                    && (cmp = compareComparable(k1, k2)) != 0) {
+                // 同一种类型并且具备可比较性，compareTo的结果不为0就已经决定了方向
+            } else if (searched) { // 已经扫描过了
+                cmp = identityCompare(k1, k2);
+            } else { // 还没有扫描，再根据内存地址大小决定左右
+                if ((node.left != null && (result = node(node.left, k1)) != null)
+                        || (node.right != null && (result = node(node.right, k1)) != null)) {
+                    // 已经存在这个key
+                    node = result;
+                    cmp = 0;
+                } else { // 不存在这个key
+                    searched = true;
+                    cmp = identityCompare(k1, k2);
+                }
+            }
+
+            if (cmp > 0) {
+                node = node.right;
+            } else if (cmp < 0) {
+                node = node.left;
+            } else { // 相等
+                V oldValue = node.value;
+                node.key = key;
+                node.value = value;
+                return oldValue;
+            }
+        } while (node != null);
+
+        // 看看插入到父节点的哪个位置
+        Node<K, V> newNode = new Node<>(h1, key, value, parent);
+        if (cmp > 0) {
+            parent.right = newNode;
+        } else {
+            parent.left = newNode;
+        }
+        size++;
+
+        // 新添加节点之后的处理
+        afterPut(newNode);
+        return null;
+    }
+
+    @Override
+    public V get(K key) {
+        Node<K, V> node = node(key);
+        return node != null ? node.value : null;
+    }
+
+    @Override
+    public V remove(K key) {
+        return remove(node(key));
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return node(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        if (size == 0) return false;
+        Queue<Node<K, V>> queue = new ArrayDeque<>();
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] == null) continue;
+
+            queue.offer(table[i]);
+            while (!queue.isEmpty()) {
+                Node<K, V> node = queue.poll();
+                if (Objects.equals(value, node.value)) return true;
+
+                if (node.left != null) queue.offer(node.left);
+                if (node.right != null) queue.offer(node.right);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        if (size == 0 || visitor == null) return;
+
+        Queue<Node<K, V>> queue = new ArrayDeque<>();
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] == null) continue;
+
+            queue.offer(table[i]);
+            while (!queue.isEmpty()) {
+                Node<K, V> node = queue.poll();
+                if (visitor.visit(node.key, node.value)) return;
+
+                if (node.left != null) queue.offer(node.left);
+                if (node.right != null) queue.offer(node.right);
+            }
+        }
+    }
+
+    private void resize() {
+        // 装填因子 <= 0.75
+        if ((float) size / table.length <= DEFAULT_LOAD_FACTOR) return;
+
+        Node<K, V>[] oldTable = table;
+        table = newTable(oldTable.length << 1);
+
+        Queue<Node<K, V>> queue = new ArrayDeque<>();
+        for (int i = 0; i < oldTable.length; i++) {
+            if (oldTable[i] == null) continue;
+
+            queue.offer(oldTable[i]);
+            while (!queue.isEmpty()) {
+                Node<K, V> node = queue.poll();
+                if (node.left != null) queue.offer(node.left);
+                if (node.right != null) queue.offer(node.right);
+
+                // 挪动代码得放到最后面
+                moveNode(node);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V>[] newTable(int capacity) {
+        return (Node<K, V>[]) new Node<?, ?>[capacity];
+    }
+
+    /**
+     * k1、k2是同一种类型，并且实现了Comparable
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareComparable(Object k1, Object k2) {
+        return ((Comparable<Object>) k1).compareTo(k2);
+    }
+
+    private void moveNode(Node<K, V> newNode) {
+        // 重置
+        newNode.parent = null;
+        newNode.left = null;
+        newNode.right = null;
+        newNode.color = RED;
+
+        int index = index(newNode);
+        // 取出index位置的红黑树根节点
+        Node<K, V> root = table[index];
+        if (root == null) {
+            root = newNode;
+            table[index] = root;
+            afterPut(root);
+            return;
+        }
+
+        // 添加新的节点到红黑树上面
+        Node<K, V> parent = root;
+        Node<K, V> node = root;
+        int cmp = 0;
+        K k1 = newNode.key;
+        int h1 = newNode.hash;
+        do {
+            parent = node;
+            K k2 = node.key;
+            int h2 = node.hash;
+            if (h1 > h2) {
+                cmp = 1;
+            } else if (h1 < h2) {
+                cmp = -1;
+            } else if (k1 != null && k2 != null
+                    && k1.getClass() == k2.getClass()
+                    && k1 instanceof Comparable
+                    && (cmp = compareComparable(k1, k2)) != 0) {
+            } else {
+                // 挪动的节点肯定不会重复，不用再扫描
+                cmp = identityCompare(k1, k2);
+            }
+
+            if (cmp > 0) {
+                node = node.right;
+            } else if (cmp < 0) {
+                node = node.left;
+            }
+        } while (node != null);
+
+        // 看看插入到父节点的哪个位置
+        newNode.parent = parent;
+        if (cmp > 0) {
+            parent.right = newNode;
+        } else {
+            parent.left = newNode;
+        }
+
+        // 新添加节点之后的处理
+        afterPut(newNode);
+    }
+
+    private V remove(Node<K, V> node) {
+        if (node == null) return null;
+
+        size--;
+        V oldValue = node.value;
+
+        if (node.hasTwoChildren()) { // 度为2的节点
+            // 找到后继节点
+            Node<K, V> s = successor(node);
+            // 用后继节点的值覆盖度为2的节点的值
+            node.key = s.key;
+            node.value = s.value;
+            node.hash = s.hash;
+            // 删除后继节点
+            node = s;
+        }
+
+        // 删除node节点（node的度必然是1或者0）
+        Node<K, V> replacement = node.left != null ? node.left : node.right;
+        int index = index(node);
+
+        if (replacement != null) { // node是度为1的节点
+            // 更改parent
+            replacement.parent = node.parent;
+            // 更改parent的left、right的指向
+            if (node.parent == null) { // node是度为1的节点并且是根节点
+                table[index] = replacement;
+            } else if (node == node.parent.left) {
+                node.parent.left = replacement;
+            } else { // node == node.parent.right
+                node.parent.right = replacement;
+            }
+
+            // 删除节点之后的处理
+            afterRemove(replacement);
+        } else if (node.parent == null) { // node是叶子节点并且是根节点
+            table[index] = null;
+        } else { // node是叶子节点，但不是根节点
+            if (node == node.parent.left) {
+                node.parent.left = null;
+            } else { // node == node.parent.right
+                node.parent.right = null;
+            }
+
+            // 删除节点之后的处理
+            afterRemove(node);
+        }
+
+        return oldValue;
+    }
+
+    /**
+     * 根据key生成对应的索引（在桶数组中的位置）
+     */
+    private int index(K key) {
+        return hash(key) & (table.length - 1);
+    }
+
+    private int hash(K key) {
+        if (key == null) return 0;
+        int hash = key.hashCode();
+        // 高16位参与运算，让低位更加均匀
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * 哈希值相等又无法比较的两个key，只能按照内存地址决定左右（不会返回0）
+     */
+    private int identityCompare(K k1, K k2) {
+        int cmp = Integer.compare(System.identityHashCode(k1), System.identityHashCode(k2));
+        return cmp != 0 ? cmp : 1;
+    }
+
+    private int index(Node<K, V> node) {
+        return node.hash & (table.length - 1);
+    }
+
+    private Node<K, V> node(K key) {
+        Node<K, V> root = table[index(key)];
+        return root == null ? null : node(root, key);
+    }
+
+    private Node<K, V> node(Node<K, V> node, K k1) {
+        int h1 = hash(k1);
+        // 存储查找结果
+        Node<K, V> result = null;
+        int cmp = 0;
+        while (node != null) {
+            K k2 = node.key;
+            int h2 = node.hash;
+            // 先比较哈希值
+            if (h1 > h2) {
+                node = node.right;
+            } else if (h1 < h2) {
+                node = node.left;
+            } else if (Objects.equals(k1, k2)) {
+                return node;
+            } else if (k1 != null && k2 != null
+                    && k1.getClass() == k2.getClass()
+                    && k1 instanceof Comparable
+                    && (cmp = compareComparable(k1, k2)) != 0) {
+                node = cmp > 0 ? node.right : node.left;
+            } else if (node.right != null && (result = node(node.right, k1)) != null) {
+                // 哈希值相等，不具备可比较性，也不equals，只能两边都扫描
+                return result;
+            } else { // 只能往左边找
+                node = node.left;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    void replaceRoot(Node<K, V> oldRoot, Node<K, V> newRoot) {
+        table[index(oldRoot)] = newRoot;
+    }
+
+    static class Node<K, V> extends RedBlackTree.Node<Node<K, V>> {
+        int hash;
+        K key;
+        V value;
+
+        public Node(int hash, K key, V value, Node<K, V> parent) {
+            super(parent);
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
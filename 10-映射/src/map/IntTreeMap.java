@@ -0,0 +1,296 @@
+package map;
+
+/**
+ * key是int的红黑树映射，key不需要装箱，结构同LongTreeMap
+ *
+ * 导航方法找不到key时返回noEntryKey（默认是Integer.MIN_VALUE），
+ * 如果它也可能是真实存在的key，需要先用containsKey或者isEmpty区分
+ */
+public class IntTreeMap<V> extends RedBlackTree<IntTreeMap.Node<V>> {
+
+    private int size;
+    private Node<V> root;
+
+    /**
+     * 导航方法找不到key时返回的key
+     */
+    private final int noEntryKey;
+
+    public IntTreeMap() {
+        this(Integer.MIN_VALUE);
+    }
+
+    public IntTreeMap(int noEntryKey) {
+        this.noEntryKey = noEntryKey;
+    }
+
+    public int getNoEntryKey() {
+        return noEntryKey;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    public V put(int key, V value) {
+        if (root == null) {
+            root = new Node<>(key, value, null);
+            size++;
+            afterPut(root);
+            return null;
+        }
+        Node<V> parent = root;
+        Node<V> node = root;
+        while (node != null) {
+            parent = node;
+            if (key > node.key) {
+                node = node.right;
+            } else if (key < node.key) {
+                node = node.left;
+            } else {
+                V oldValue = node.value;
+                node.value = value;
+                return oldValue;
+            }
+        }
+        Node<V> newNode = new Node<>(key, value, parent);
+        if (key > parent.key) {
+            parent.right = newNode;
+        } else {
+            parent.left = newNode;
+        }
+        size++;
+        afterPut(newNode);
+        return null;
+    }
+
+    public V get(int key) {
+        Node<V> node = node(key);
+        return node != null ? node.value : null;
+    }
+
+    public V remove(int key) {
+        Node<V> node = node(key);
+        if (node == null) return null;
+        V oldValue = node.value;
+        remove(node);
+        return oldValue;
+    }
+
+    public boolean containsKey(int key) {
+        return node(key) != null;
+    }
+
+    public boolean containsValue(V value) {
+        for (Node<V> node = first(); node != null; node = successor(node)) {
+            if (value == null ? node.value == null : value.equals(node.value)) return true;
+        }
+        return false;
+    }
+
+    public int firstKey() {
+        return keyOrNoEntry(first());
+    }
+
+    public int lastKey() {
+        return keyOrNoEntry(last());
+    }
+
+    /**
+     * 小于等于key的最大key
+     */
+    public int floorKey(int key) {
+        return keyOrNoEntry(floorNode(key, true));
+    }
+
+    /**
+     * 大于等于key的最小key
+     */
+    public int ceilingKey(int key) {
+        return keyOrNoEntry(ceilingNode(key, true));
+    }
+
+    /**
+     * 小于key的最大key
+     */
+    public int lowerKey(int key) {
+        return keyOrNoEntry(floorNode(key, false));
+    }
+
+    /**
+     * 大于key的最小key
+     */
+    public int higherKey(int key) {
+        return keyOrNoEntry(ceilingNode(key, false));
+    }
+
+    /**
+     * 删除最小的key
+     * @return 被删除的key
+     */
+    public int pollFirst() {
+        Node<V> node = first();
+        if (node == null) return noEntryKey;
+        int key = node.key;
+        remove(node);
+        return key;
+    }
+
+    /**
+     * 删除最大的key
+     * @return 被删除的key
+     */
+    public int pollLast() {
+        Node<V> node = last();
+        if (node == null) return noEntryKey;
+        int key = node.key;
+        remove(node);
+        return key;
+    }
+
+    /**
+     * 按key从小到大遍历
+     */
+    public void traversal(Visitor<V> visitor) {
+        if (visitor == null) return;
+        for (Node<V> node = first(); node != null; node = successor(node)) {
+            if (visitor.visit(node.key, node.value)) return;
+        }
+    }
+
+    /**
+     * 按顺序遍历[fromKey, toKey)范围内的元素，复杂度O(logn + k)
+     */
+    public void traversal(int fromKey, int toKey, Visitor<V> visitor) {
+        if (visitor == null) return;
+        for (Node<V> node = ceilingNode(fromKey, true); node != null; node = successor(node)) {
+            if (node.key >= toKey) return;
+            if (visitor.visit(node.key, node.value)) return;
+        }
+    }
+
+    private void remove(Node<V> node) {
+        size--;
+        if (node.hasTwoChildren()) { // 度为2
+            Node<V> s = successor(node);
+            node.key = s.key;
+            node.value = s.value;
+            node = s;
+        }
+
+        Node<V> replacement = node.left != null ? node.left : node.right;
+
+        if (replacement != null) { // 度为1
+            replacement.parent = node.parent;
+            if (node.parent == null) {
+                root = replacement;
+            } else if (node == node.parent.right) {
+                node.parent.right = replacement;
+            } else {
+                node.parent.left = replacement;
+            }
+            // 删除节点之后的处理
+            afterRemove(replacement);
+        } else if (node.parent == null) { // 度为0，并且是根节点
+            root = null;
+        } else { // 度为0
+            if (node == node.parent.left) {
+                node.parent.left = null;
+            } else {
+                node.parent.right = null;
+            }
+            // 删除节点之后的处理
+            afterRemove(node);
+        }
+    }
+
+    private Node<V> first() {
+        Node<V> node = root;
+        if (node == null) return null;
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private Node<V> last() {
+        Node<V> node = root;
+        if (node == null) return null;
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    private Node<V> node(int key) {
+        Node<V> node = root;
+        while (node != null) {
+            if (key == node.key) return node;
+            node = key > node.key ? node.right : node.left;
+        }
+        return null;
+    }
+
+    private Node<V> floorNode(int key, boolean inclusive) {
+        Node<V> node = root;
+        Node<V> result = null;
+        while (node != null) {
+            if (key == node.key && inclusive) return node;
+            if (key > node.key) {
+                result = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return result;
+    }
+
+    private Node<V> ceilingNode(int key, boolean inclusive) {
+        Node<V> node = root;
+        Node<V> result = null;
+        while (node != null) {
+            if (key == node.key && inclusive) return node;
+            if (key < node.key) {
+                result = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return result;
+    }
+
+    private int keyOrNoEntry(Node<V> node) {
+        return node == null ? noEntryKey : node.key;
+    }
+
+    @Override
+    void replaceRoot(Node<V> oldRoot, Node<V> newRoot) {
+        root = newRoot;
+    }
+
+    static class Node<V> extends RedBlackTree.Node<Node<V>> {
+        int key;
+        V value;
+
+        public Node(int key, V value, Node<V> parent) {
+            super(parent);
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    public static abstract class Visitor<V> {
+        public abstract boolean visit(int key, V value);
+    }
+}
@@ -0,0 +1,411 @@
+package map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自动加载的缓存
+ * get(key, loader)没有命中的时候，由loader在executor中加载value，
+ * 同一个key同时只会有一次加载，其他并发没有命中的线程等待这次加载的结果（请求合并），
+ * 不会出现很多线程同时计算同一个value的情况
+ *
+ * 元素写入expireAfterWrite之后过期，过期的元素相当于不存在
+ * 写入超过refreshAfterWrite（还没有过期）之后再被get，会在后台重新加载，
+ * 加载完成之前仍然返回旧的value，热点key不会因为过期而阻塞
+ */
+public class LoadingCacheMap<K, V> implements Map<K, V> {
+
+    public interface Loader<K, V> {
+        /**
+         * @return null表示不存在，不会被缓存
+         */
+        V load(K key) throws Exception;
+    }
+
+    public interface BatchLoader<K, V> {
+        /**
+         * @return 加载到的key-value，没有包含的key表示不存在
+         */
+        Map<K, V> loadAll(List<K> keys) throws Exception;
+    }
+
+    private final HashMap<K, Node<K, V>> map = new HashMap<>();
+    /**
+     * 正在加载的key
+     */
+    private final HashMap<K, CompletableFuture<V>> loading = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Executor executor;
+    private final long expireNanos;
+    private final long refreshNanos;
+
+    /**
+     * 元素不会过期
+     */
+    public LoadingCacheMap() {
+        this(0, 0, TimeUnit.MILLISECONDS, null);
+    }
+
+    /**
+     * @param expireAfterWrite 写入之后多久过期，<=0表示不会过期
+     * @param refreshAfterWrite 写入之后多久开始提前刷新，<=0表示不刷新
+     * @param executor 执行加载的线程池，null表示使用默认的（守护线程的cached线程池）
+     */
+    public LoadingCacheMap(long expireAfterWrite, long refreshAfterWrite, TimeUnit unit, Executor executor) {
+        this.expireNanos = expireAfterWrite <= 0 ? 0 : unit.toNanos(expireAfterWrite);
+        this.refreshNanos = refreshAfterWrite <= 0 ? 0 : unit.toNanos(refreshAfterWrite);
+        if (expireNanos > 0 && refreshNanos >= expireNanos) {
+            throw new IllegalArgumentException("refreshAfterWrite must be less than expireAfterWrite");
+        }
+        this.executor = executor != null ? executor : Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "LoadingCacheMap-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 可能包含已经过期、但还没有被清理的元素
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return map.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 正在进行的加载完成之后也不会写入缓存
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            map.clear();
+            loading.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 正在进行的加载完成之后不会覆盖这个value
+     */
+    @Override
+    public V put(K key, V value) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            loading.remove(key);
+            Node<K, V> node = map.put(key, new Node<>(value, now, null));
+            return node == null || expired(node, now) ? null : node.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 只查询缓存，不会加载
+     */
+    @Override
+    public V get(K key) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            Node<K, V> node = fresh(key, now);
+            return node == null ? null : node.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 没有命中的话，用loader加载（并发的加载会合并为一次），加载到null不会被缓存
+     * 加载失败的话，loader抛出的运行时异常原样抛出，受检异常包装为CompletionException
+     */
+    public V get(K key, Loader<K, V> loader) {
+        long now = System.nanoTime();
+        CompletableFuture<V> future;
+        boolean owner = false;
+        lock.lock();
+        try {
+            Node<K, V> node = fresh(key, now);
+            if (node != null) {
+                if (refreshNanos > 0 && node.loader != null && !node.refreshing
+                        && now - node.writeTime >= refreshNanos) {
+                    node.refreshing = true;
+                    try {
+                        executor.execute(() -> refresh(key, node));
+                    } catch (RejectedExecutionException e) {
+                        // 刷新提交不了就算了，下次get再试
+                        node.refreshing = false;
+                    }
+                }
+                return node.value;
+            }
+            future = loading.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                loading.put(key, future);
+                owner = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (owner) {
+            CompletableFuture<V> f = future;
+            try {
+                executor.execute(() -> {
+                    try {
+                        complete(key, f, loader.load(key), loader);
+                    } catch (Throwable e) {
+                        fail(key, f, e);
+                    }
+                });
+            } catch (RuntimeException e) {
+                // 比如executor拒绝了任务，等待这次加载的线程都会收到这个异常
+                fail(key, f, e);
+            }
+        }
+        return join(future);
+    }
+
+    /**
+     * 批量查询，没有命中的key一起交给loader加载一次
+     * 已经有其他线程在加载的key不会重复加载，等待它们的结果
+     * @return 存在的key-value
+     */
+    public Map<K, V> getAll(K[] keys, BatchLoader<K, V> loader) {
+        long now = System.nanoTime();
+        HashMap<K, V> result = new HashMap<>();
+        List<K> missing = new ArrayList<>();
+        List<CompletableFuture<V>> futures = new ArrayList<>();
+        List<K> waitingKeys = new ArrayList<>();
+        List<CompletableFuture<V>> waiting = new ArrayList<>();
+        lock.lock();
+        try {
+            for (K key : keys) {
+                Node<K, V> node = fresh(key, now);
+                if (node != null) {
+                    result.put(key, node.value);
+                    continue;
+                }
+                CompletableFuture<V> future = loading.get(key);
+                if (future == null) {
+                    future = new CompletableFuture<>();
+                    loading.put(key, future);
+                    missing.add(key);
+                    futures.add(future);
+                }
+                waitingKeys.add(key);
+                waiting.add(future);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (!missing.isEmpty()) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        Map<K, V> loaded = loader.loadAll(missing);
+                        for (int i = 0; i < missing.size(); i++) {
+                            K key = missing.get(i);
+                            complete(key, futures.get(i), loaded == null ? null : loaded.get(key), null);
+                        }
+                    } catch (Throwable e) {
+                        for (int i = 0; i < missing.size(); i++) {
+                            fail(missing.get(i), futures.get(i), e);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                for (int i = 0; i < missing.size(); i++) {
+                    fail(missing.get(i), futures.get(i), e);
+                }
+            }
+        }
+
+        for (int i = 0; i < waiting.size(); i++) {
+            V value = join(waiting.get(i));
+            if (value != null) result.put(waitingKeys.get(i), value);
+        }
+        return result;
+    }
+
+    /**
+     * 正在进行的加载完成之后不会写入缓存
+     */
+    @Override
+    public V remove(K key) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            loading.remove(key);
+            Node<K, V> node = map.remove(key);
+            return node == null || expired(node, now) ? null : node.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            return fresh(key, now) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        boolean[] found = {false};
+        traversal(new Visitor<K, V>() {
+            @Override
+            public boolean visit(K key, V v) {
+                return found[0] = value == null ? v == null : value.equals(v);
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * 跳过已经过期的元素，遍历时持有锁，visitor里面不能修改这个map
+     */
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        if (visitor == null) return;
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            map.traversal(new Visitor<K, Node<K, V>>() {
+                @Override
+                public boolean visit(K key, Node<K, V> node) {
+                    return !expired(node, now) && visitor.visit(key, node.value);
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 加载完成，如果期间没有被put、remove、clear，就写入缓存
+     */
+    private void complete(K key, CompletableFuture<V> future, V value, Loader<K, V> loader) {
+        lock.lock();
+        try {
+            if (loading.get(key) == future) {
+                loading.remove(key);
+                if (value != null) {
+                    map.put(key, new Node<>(value, System.nanoTime(), loader));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        future.complete(value);
+    }
+
+    private void fail(K key, CompletableFuture<V> future, Throwable e) {
+        lock.lock();
+        try {
+            if (loading.get(key) == future) {
+                loading.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+        future.completeExceptionally(e);
+    }
+
+    /**
+     * 后台刷新，失败的话保留旧的value，下次get再试
+     */
+    private void refresh(K key, Node<K, V> node) {
+        V value = null;
+        boolean loaded = false;
+        try {
+            value = node.loader.load(key);
+            loaded = true;
+        } catch (Throwable e) {
+            // 保留旧的value
+        }
+        lock.lock();
+        try {
+            node.refreshing = false;
+            // 期间被替换或者删除了，刷新的结果作废
+            if (!loaded || map.get(key) != node) return;
+            if (value == null) {
+                map.remove(key);
+            } else {
+                map.put(key, new Node<>(value, System.nanoTime(), node.loader));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 没有过期的节点，过期的顺便删除
+     */
+    private Node<K, V> fresh(K key, long now) {
+        Node<K, V> node = map.get(key);
+        if (node == null) return null;
+        if (expired(node, now)) {
+            map.remove(key);
+            return null;
+        }
+        return node;
+    }
+
+    private boolean expired(Node<K, V> node, long now) {
+        return expireNanos > 0 && now - node.writeTime >= expireNanos;
+    }
+
+    private V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    private static class Node<K, V> {
+        final V value;
+        final long writeTime;
+        /**
+         * 加载这个value的loader，用来提前刷新；put写入的是null
+         */
+        final Loader<K, V> loader;
+        boolean refreshing;
+
+        Node(V value, long writeTime, Loader<K, V> loader) {
+            this.value = value;
+            this.writeTime = writeTime;
+            this.loader = loader;
+        }
+    }
+}
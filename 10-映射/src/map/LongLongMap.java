@@ -0,0 +1,250 @@
+package map;
+
+/**
+ * key、value都是long的哈希表，不需要装箱
+ * 开放定址 + Robin Hood：冲突的时候，离自己理想位置更远的元素优先占据位置，
+ * 使得探测序列的长度比较平均，查找不存在的key时也能提前结束
+ * 所有数据都存放在两个long[]中，没有节点对象
+ */
+public class LongLongMap {
+
+    private static final int DEFAULT_CAPACITY = 1 << 4;
+    /**
+     * 数组长度的上限，元素数量超过它的装填因子之后就不能再添加了
+     */
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+    /**
+     * 斐波那契散列用到的乘数（2^64 / 黄金分割比）
+     */
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+    /**
+     * 0作为空槽位的标记，key为0的元素单独存放
+     */
+    private static final long FREE_KEY = 0;
+
+    private int size;
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int shift;
+
+    private boolean hasFreeKey;
+    private long freeKeyValue;
+
+    /**
+     * get、put、remove找不到key时返回的值
+     */
+    private final long noEntryValue;
+
+    public LongLongMap() {
+        this(DEFAULT_CAPACITY, 0);
+    }
+
+    public LongLongMap(int capacity, long noEntryValue) {
+        this.noEntryValue = noEntryValue;
+        allocate(tableSizeFor(capacity));
+    }
+
+    public long getNoEntryValue() {
+        return noEntryValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (size == 0) return;
+        size = 0;
+        hasFreeKey = false;
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = FREE_KEY;
+        }
+    }
+
+    public long put(long key, long value) {
+        if (key == FREE_KEY) {
+            long oldValue = hasFreeKey ? freeKeyValue : noEntryValue;
+            if (!hasFreeKey) size++;
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return oldValue;
+        }
+
+        int index = index(key);
+        int dist = 0;
+        while (true) {
+            long k = keys[index];
+            if (k == FREE_KEY) break;
+            if (k == key) {
+                long oldValue = values[index];
+                values[index] = value;
+                return oldValue;
+            }
+            // 遇到比自己"富有"的元素，key必然不存在，就插入到这里
+            if (probeDistance(k, index) < dist) break;
+            index = (index + 1) & mask;
+            dist++;
+        }
+
+        if (size >= (int) (keys.length * DEFAULT_LOAD_FACTOR)) {
+            resize();
+            insert(key, value);
+        } else {
+            insert(index, dist, key, value);
+        }
+        size++;
+        return noEntryValue;
+    }
+
+    public long get(long key) {
+        if (key == FREE_KEY) return hasFreeKey ? freeKeyValue : noEntryValue;
+        int index = indexOf(key);
+        return index < 0 ? noEntryValue : values[index];
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) return hasFreeKey;
+        return indexOf(key) >= 0;
+    }
+
+    public boolean containsValue(long value) {
+        if (hasFreeKey && freeKeyValue == value) return true;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY && values[i] == value) return true;
+        }
+        return false;
+    }
+
+    public long remove(long key) {
+        if (key == FREE_KEY) {
+            if (!hasFreeKey) return noEntryValue;
+            hasFreeKey = false;
+            size--;
+            return freeKeyValue;
+        }
+
+        int index = indexOf(key);
+        if (index < 0) return noEntryValue;
+        long oldValue = values[index];
+
+        // 后移删除：把后面的元素往前挪，直到遇到空槽位或者本来就在理想位置的元素
+        int next = (index + 1) & mask;
+        while (keys[next] != FREE_KEY && probeDistance(keys[next], next) != 0) {
+            keys[index] = keys[next];
+            values[index] = values[next];
+            index = next;
+            next = (next + 1) & mask;
+        }
+        keys[index] = FREE_KEY;
+        size--;
+        return oldValue;
+    }
+
+    public void traversal(Visitor visitor) {
+        if (visitor == null) return;
+        if (hasFreeKey && visitor.visit(FREE_KEY, freeKeyValue)) return;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == FREE_KEY) continue;
+            if (visitor.visit(keys[i], values[i])) return;
+        }
+    }
+
+    /**
+     * @return key所在的槽位，不存在返回-1
+     */
+    private int indexOf(long key) {
+        int index = index(key);
+        int dist = 0;
+        while (true) {
+            long k = keys[index];
+            if (k == FREE_KEY) return -1;
+            if (k == key) return index;
+            // 如果key存在，不可能在比它"富有"的元素后面
+            if (probeDistance(k, index) < dist) return -1;
+            index = (index + 1) & mask;
+            dist++;
+        }
+    }
+
+    private void insert(long key, long value) {
+        int index = index(key);
+        int dist = 0;
+        while (keys[index] != FREE_KEY && probeDistance(keys[index], index) >= dist) {
+            index = (index + 1) & mask;
+            dist++;
+        }
+        insert(index, dist, key, value);
+    }
+
+    /**
+     * 从index位置开始放入新元素（key肯定不存在），被挤掉的元素继续往后找位置
+     */
+    private void insert(int index, int dist, long key, long value) {
+        while (keys[index] != FREE_KEY) {
+            int d = probeDistance(keys[index], index);
+            if (d < dist) {
+                long k = keys[index];
+                long v = values[index];
+                keys[index] = key;
+                values[index] = value;
+                key = k;
+                value = v;
+                dist = d;
+            }
+            index = (index + 1) & mask;
+            dist++;
+        }
+        keys[index] = key;
+        values[index] = value;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        if (oldKeys.length == MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("map is full");
+        }
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == FREE_KEY) continue;
+            insert(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        shift = Long.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    /**
+     * 斐波那契散列，取乘积的高位，低位相近的key也能分散开
+     */
+    private int index(long key) {
+        return (int) ((key * PHI) >>> shift);
+    }
+
+    /**
+     * 元素离它理想位置的距离
+     */
+    private int probeDistance(long key, int index) {
+        return (index - index(key)) & mask;
+    }
+
+    static int tableSizeFor(int capacity) {
+        if (capacity <= DEFAULT_CAPACITY) return DEFAULT_CAPACITY;
+        if (capacity >= MAXIMUM_CAPACITY) return MAXIMUM_CAPACITY;
+        return Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    public static abstract class Visitor {
+        public abstract boolean visit(long key, long value);
+    }
+}
@@ -0,0 +1,299 @@
+package map;
+
+/**
+ * key是long的红黑树映射
+ * 节点直接存放long类型的key，比较就是普通的数值比较：
+ * 既不需要装箱，也不需要每一层都通过Comparator或者Comparable的虚调用来比较
+ * 红黑树的调整逻辑继承自RedBlackTree，和TreeMap是同一份
+ *
+ * 导航方法找不到key时返回noEntryKey（默认是Long.MIN_VALUE），
+ * 如果它也可能是真实存在的key，需要先用containsKey或者isEmpty区分
+ */
+public class LongTreeMap<V> extends RedBlackTree<LongTreeMap.Node<V>> {
+
+    private int size;
+    private Node<V> root;
+
+    /**
+     * 导航方法找不到key时返回的key
+     */
+    private final long noEntryKey;
+
+    public LongTreeMap() {
+        this(Long.MIN_VALUE);
+    }
+
+    public LongTreeMap(long noEntryKey) {
+        this.noEntryKey = noEntryKey;
+    }
+
+    public long getNoEntryKey() {
+        return noEntryKey;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    public V put(long key, V value) {
+        if (root == null) {
+            root = new Node<>(key, value, null);
+            size++;
+            afterPut(root);
+            return null;
+        }
+        Node<V> parent = root;
+        Node<V> node = root;
+        while (node != null) {
+            parent = node;
+            if (key > node.key) {
+                node = node.right;
+            } else if (key < node.key) {
+                node = node.left;
+            } else {
+                V oldValue = node.value;
+                node.value = value;
+                return oldValue;
+            }
+        }
+        Node<V> newNode = new Node<>(key, value, parent);
+        if (key > parent.key) {
+            parent.right = newNode;
+        } else {
+            parent.left = newNode;
+        }
+        size++;
+        afterPut(newNode);
+        return null;
+    }
+
+    public V get(long key) {
+        Node<V> node = node(key);
+        return node != null ? node.value : null;
+    }
+
+    public V remove(long key) {
+        Node<V> node = node(key);
+        if (node == null) return null;
+        V oldValue = node.value;
+        remove(node);
+        return oldValue;
+    }
+
+    public boolean containsKey(long key) {
+        return node(key) != null;
+    }
+
+    public boolean containsValue(V value) {
+        for (Node<V> node = first(); node != null; node = successor(node)) {
+            if (value == null ? node.value == null : value.equals(node.value)) return true;
+        }
+        return false;
+    }
+
+    public long firstKey() {
+        return keyOrNoEntry(first());
+    }
+
+    public long lastKey() {
+        return keyOrNoEntry(last());
+    }
+
+    /**
+     * 小于等于key的最大key
+     */
+    public long floorKey(long key) {
+        return keyOrNoEntry(floorNode(key, true));
+    }
+
+    /**
+     * 大于等于key的最小key
+     */
+    public long ceilingKey(long key) {
+        return keyOrNoEntry(ceilingNode(key, true));
+    }
+
+    /**
+     * 小于key的最大key
+     */
+    public long lowerKey(long key) {
+        return keyOrNoEntry(floorNode(key, false));
+    }
+
+    /**
+     * 大于key的最小key
+     */
+    public long higherKey(long key) {
+        return keyOrNoEntry(ceilingNode(key, false));
+    }
+
+    /**
+     * 删除最小的key
+     * @return 被删除的key
+     */
+    public long pollFirst() {
+        Node<V> node = first();
+        if (node == null) return noEntryKey;
+        long key = node.key;
+        remove(node);
+        return key;
+    }
+
+    /**
+     * 删除最大的key
+     * @return 被删除的key
+     */
+    public long pollLast() {
+        Node<V> node = last();
+        if (node == null) return noEntryKey;
+        long key = node.key;
+        remove(node);
+        return key;
+    }
+
+    /**
+     * 按key从小到大遍历
+     */
+    public void traversal(Visitor<V> visitor) {
+        if (visitor == null) return;
+        for (Node<V> node = first(); node != null; node = successor(node)) {
+            if (visitor.visit(node.key, node.value)) return;
+        }
+    }
+
+    /**
+     * 按顺序遍历[fromKey, toKey)范围内的元素，复杂度O(logn + k)
+     */
+    public void traversal(long fromKey, long toKey, Visitor<V> visitor) {
+        if (visitor == null) return;
+        for (Node<V> node = ceilingNode(fromKey, true); node != null; node = successor(node)) {
+            if (node.key >= toKey) return;
+            if (visitor.visit(node.key, node.value)) return;
+        }
+    }
+
+    private void remove(Node<V> node) {
+        size--;
+        if (node.hasTwoChildren()) { // 度为2
+            Node<V> s = successor(node);
+            node.key = s.key;
+            node.value = s.value;
+            node = s;
+        }
+
+        Node<V> replacement = node.left != null ? node.left : node.right;
+
+        if (replacement != null) { // 度为1
+            replacement.parent = node.parent;
+            if (node.parent == null) {
+                root = replacement;
+            } else if (node == node.parent.right) {
+                node.parent.right = replacement;
+            } else {
+                node.parent.left = replacement;
+            }
+            // 删除节点之后的处理
+            afterRemove(replacement);
+        } else if (node.parent == null) { // 度为0，并且是根节点
+            root = null;
+        } else { // 度为0
+            if (node == node.parent.left) {
+                node.parent.left = null;
+            } else {
+                node.parent.right = null;
+            }
+            // 删除节点之后的处理
+            afterRemove(node);
+        }
+    }
+
+    private Node<V> first() {
+        Node<V> node = root;
+        if (node == null) return null;
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private Node<V> last() {
+        Node<V> node = root;
+        if (node == null) return null;
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    private Node<V> node(long key) {
+        Node<V> node = root;
+        while (node != null) {
+            if (key == node.key) return node;
+            node = key > node.key ? node.right : node.left;
+        }
+        return null;
+    }
+
+    private Node<V> floorNode(long key, boolean inclusive) {
+        Node<V> node = root;
+        Node<V> result = null;
+        while (node != null) {
+            if (key == node.key && inclusive) return node;
+            if (key > node.key) {
+                result = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return result;
+    }
+
+    private Node<V> ceilingNode(long key, boolean inclusive) {
+        Node<V> node = root;
+        Node<V> result = null;
+        while (node != null) {
+            if (key == node.key && inclusive) return node;
+            if (key < node.key) {
+                result = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return result;
+    }
+
+    private long keyOrNoEntry(Node<V> node) {
+        return node == null ? noEntryKey : node.key;
+    }
+
+    @Override
+    void replaceRoot(Node<V> oldRoot, Node<V> newRoot) {
+        root = newRoot;
+    }
+
+    static class Node<V> extends RedBlackTree.Node<Node<V>> {
+        long key;
+        V value;
+
+        public Node(long key, V value, Node<V> parent) {
+            super(parent);
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    public static abstract class Visitor<V> {
+        public abstract boolean visit(long key, V value);
+    }
+}
@@ -0,0 +1,224 @@
+package map;
+
+/**
+ * 容量有限的LRU缓存
+ * 哈希表负责O(1)查找，每个节点同时串在一个双向链表上，按照访问时间排序：
+ * first是最久没有被访问的，last是最近被访问的
+ * get、put会把节点移动到链表尾部，超出容量的时候淘汰链表头部的节点，都是O(1)
+ * 不是线程安全的
+ */
+public class LruCacheMap<K, V> implements Map<K, V> {
+
+    /**
+     * 节点因为超出容量被淘汰时的回调
+     */
+    public interface EvictionListener<K, V> {
+        void onEviction(K key, V value);
+    }
+
+    private final int capacity;
+    private final HashMap<K, Node<K, V>> map = new HashMap<>();
+    private final EvictionListener<K, V> listener;
+    private Node<K, V> first;
+    private Node<K, V> last;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public LruCacheMap(int capacity) {
+        this(capacity, null);
+    }
+
+    public LruCacheMap(int capacity, EvictionListener<K, V> listener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.listener = listener;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * 清空不算淘汰，不会通知listener
+     */
+    @Override
+    public void clear() {
+        map.clear();
+        first = null;
+        last = null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        Node<K, V> node = map.get(key);
+        if (node != null) {
+            V oldValue = node.value;
+            node.value = value;
+            moveToLast(node);
+            return oldValue;
+        }
+
+        node = new Node<>(last, key, value, null);
+        map.put(key, node);
+        linkLast(node);
+        if (map.size() > capacity) {
+            evict();
+        }
+        return null;
+    }
+
+    /**
+     * 命中的话，节点成为最近被访问的
+     */
+    @Override
+    public V get(K key) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        moveToLast(node);
+        return node.value;
+    }
+
+    @Override
+    public V remove(K key) {
+        Node<K, V> node = map.remove(key);
+        if (node == null) return null;
+        unlink(node);
+        return node.value;
+    }
+
+    /**
+     * 不影响访问顺序，也不计入命中率
+     */
+    @Override
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        for (Node<K, V> node = first; node != null; node = node.next) {
+            if (valEquals(value, node.value)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 从最久没有被访问的开始遍历（也就是淘汰的顺序）
+     */
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        if (visitor == null) return;
+        for (Node<K, V> node = first; node != null; node = node.next) {
+            if (visitor.visit(node.key, node.value)) return;
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 命中率，还没有被get过的时候是0
+     */
+    public double hitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 0 : (double) hitCount / requests;
+    }
+
+    /**
+     * 淘汰最久没有被访问的节点
+     */
+    private void evict() {
+        Node<K, V> node = first;
+        map.remove(node.key);
+        unlink(node);
+        evictionCount++;
+        if (listener != null) {
+            listener.onEviction(node.key, node.value);
+        }
+    }
+
+    private void moveToLast(Node<K, V> node) {
+        if (node == last) return;
+        unlink(node);
+        node.prev = last;
+        linkLast(node);
+    }
+
+    /**
+     * 把node（prev已经指向last）接到链表尾部
+     */
+    private void linkLast(Node<K, V> node) {
+        node.next = null;
+        if (last == null) { // 这是链表的第一个节点
+            first = node;
+        } else {
+            last.next = node;
+        }
+        last = node;
+    }
+
+    private void unlink(Node<K, V> node) {
+        Node<K, V> prev = node.prev;
+        Node<K, V> next = node.next;
+
+        if (prev == null) {
+            first = next;
+        } else {
+            prev.next = next;
+        }
+
+        if (next == null) {
+            last = prev;
+        } else {
+            next.prev = prev;
+        }
+
+        node.prev = null;
+        node.next = null;
+    }
+
+    private boolean valEquals(V v1, V v2) {
+        return v1 == null ? v2 == null : v1.equals(v2);
+    }
+
+    private static class Node<K, V> {
+        K key;
+        V value;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        public Node(Node<K, V> prev, K key, V value, Node<K, V> next) {
+            this.prev = prev;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package map;
 
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
 public interface Map<K, V> {
     int size();
 
@@ -19,9 +22,114 @@ public interface Map<K, V> {
 
     void traversal(Visitor<K, V> visitor);
 
+    /*
+     * 下面这些读-改-写操作的语义和java.util.Map一样：value为null等同于不存在，计算结果为null表示删除
+     * 默认实现是get之后再put/remove，不是原子的，线程安全的实现需要重写
+     */
+
+    /**
+     * key不存在的时候才添加
+     * @return 原来的value
+     */
+    default V putIfAbsent(K key, V value) {
+        V oldValue = get(key);
+        if (oldValue == null) {
+            oldValue = put(key, value);
+        }
+        return oldValue;
+    }
+
+    /**
+     * key不存在的时候，用mappingFunction计算value并添加
+     * @return 现在的value
+     */
+    default V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        V oldValue = get(key);
+        if (oldValue != null) return oldValue;
+        V newValue = mappingFunction.apply(key);
+        if (newValue != null) {
+            put(key, newValue);
+        }
+        return newValue;
+    }
+
+    /**
+     * key存在的时候，根据原来的value计算新的value
+     * @return 新的value
+     */
+    default V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        V oldValue = get(key);
+        if (oldValue == null) return null;
+        V newValue = remappingFunction.apply(key, oldValue);
+        if (newValue == null) {
+            remove(key);
+        } else {
+            put(key, newValue);
+        }
+        return newValue;
+    }
+
+    /**
+     * 根据原来的value（不存在是null）计算新的value
+     * @return 新的value
+     */
+    default V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        V oldValue = get(key);
+        V newValue = remappingFunction.apply(key, oldValue);
+        if (newValue == null) {
+            if (oldValue != null || containsKey(key)) {
+                remove(key);
+            }
+        } else {
+            put(key, newValue);
+        }
+        return newValue;
+    }
+
+    /**
+     * key不存在的时候添加value，否则用原来的value和value计算新的value
+     * @return 新的value
+     */
+    default V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        V oldValue = get(key);
+        V newValue = oldValue == null ? value : remappingFunction.apply(oldValue, value);
+        if (newValue == null) {
+            remove(key);
+        } else {
+            put(key, newValue);
+        }
+        return newValue;
+    }
+
     public static abstract class Visitor<K, V> {
         boolean stop;
 
         public abstract boolean visit(K key, V value);
     }
+
+    public static class Entry<K, V> {
+        K key;
+        V value;
+
+        public Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return key + "_" + value;
+        }
+    }
 }
@@ -0,0 +1,694 @@
+package map;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * 持久化到文件的B+树映射，key是long，value是任意字节
+ * 文件被划分为固定大小的页，通过FileChannel.map映射到内存中（按块映射，每块64MB），
+ * 读写节点就是读写映射的内存，由操作系统的页缓存负责换入换出，不占用Java堆
+ *
+ * 写时复制：已经提交的页永远不会被修改，修改节点时先把它复制到一个新页，
+ * 所以一次修改会复制从根节点到叶子节点的路径；同一个事务里新分配的页可以直接修改
+ * 提交时先把新页刷到磁盘，再把新的根节点写入元数据页，
+ * 元数据页有两个，轮流写入，带有事务id和校验和，打开文件时选用校验通过的、事务id较大的那个，
+ * 所以无论在哪一刻崩溃，重新打开之后看到的都是某一次完整提交的状态
+ *
+ * value追加写入到新页中，get返回的是映射内存的只读切片（零拷贝），
+ * 切片在map关闭之前一直有效（rollback之后未提交的value所在的页会被复用）
+ *
+ * 简化：删除不做节点合并，只会回收变空的节点；被替换的页不会被回收，文件只增不减
+ * 不是线程安全的
+ */
+public class MappedBTreeMap implements Map<Long, ByteBuffer>, AutoCloseable {
+
+    private static final int NULL = 0;
+    private static final int PAGE_SIZE = 4096;
+    /**
+     * 每块2^14页，64MB
+     */
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_PAGES = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_PAGES - 1;
+
+    private static final long MAGIC = 0x4D42547265654D61L;
+    private static final int VERSION = 1;
+    /**
+     * 第0页和第1页是元数据页，布局：
+     * magic(8) version(4) pageSize(4) txid(8) root(4) pageCount(4) size(8) checksum(4)
+     */
+    private static final int META_MAGIC = 0;
+    private static final int META_VERSION = 8;
+    private static final int META_PAGE_SIZE = 12;
+    private static final int META_TXID = 16;
+    private static final int META_ROOT = 24;
+    private static final int META_PAGE_COUNT = 28;
+    private static final int META_SIZE = 32;
+    private static final int META_CHECKSUM = 40;
+    private static final int META_PAGES = 2;
+
+    /**
+     * 节点页的头部：type(1) 空闲(1) count(2) 空闲(4)
+     */
+    private static final byte LEAF = 1;
+    private static final byte INNER = 2;
+    private static final int TYPE = 0;
+    private static final int COUNT = 2;
+    private static final int DATA = 8;
+    /**
+     * 叶子节点的条目：key(8) valuePage(4) valueOffset(4) valueLength(4)
+     * valueLength为-1表示value是null
+     */
+    private static final int LEAF_ENTRY = 20;
+    private static final int ENTRY_VALUE_PAGE = 8;
+    private static final int ENTRY_VALUE_OFFSET = 12;
+    private static final int ENTRY_VALUE_LENGTH = 16;
+    /**
+     * 内部节点：child0(4)，后面是count个(key(8) child(4))
+     * 插入分隔key和右边的子节点正好是插入一个条目
+     */
+    private static final int INNER_ENTRY = 12;
+    private static final int INNER_ENTRIES = DATA + 4;
+    /**
+     * 页里多留一个条目的位置，先插入再分裂
+     */
+    private static final int LEAF_MAX = (PAGE_SIZE - DATA) / LEAF_ENTRY - 1;
+    private static final int INNER_MAX = (PAGE_SIZE - INNER_ENTRIES) / INNER_ENTRY - 1;
+
+    private final FileChannel channel;
+    private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private boolean closed;
+
+    /**
+     * 最近一次提交的状态
+     */
+    private long txid;
+    private int committedRoot;
+    private int committedPageCount;
+    private long committedSize;
+
+    /**
+     * 当前事务的状态，页号>=committedPageCount的页都是当前事务分配的
+     */
+    private int root;
+    private int pageCount;
+    private long size;
+    /**
+     * 当前事务用来存放小value的页，以及其中已经用掉的字节数
+     */
+    private int valuePage = NULL;
+    private int valueOffset;
+
+    /**
+     * 打开文件，文件不存在的话创建一个空的映射
+     */
+    public MappedBTreeMap(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean created = channel.size() == 0;
+            ensureMapped(META_PAGES);
+            if (created) {
+                create();
+            } else {
+                load();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int size() {
+        openCheck();
+        return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        openCheck();
+        return size == 0;
+    }
+
+    /**
+     * 清空当前事务中的映射，提交之后生效
+     */
+    @Override
+    public void clear() {
+        openCheck();
+        root = NULL;
+        size = 0;
+    }
+
+    /**
+     * 复制value剩余的字节（不改变它的position）
+     */
+    @Override
+    public ByteBuffer put(Long key, ByteBuffer value) {
+        openCheck();
+        keyNotNullCheck(key);
+        int page = NULL;
+        int offset = 0;
+        int length = -1;
+        if (value != null) {
+            length = value.remaining();
+            long position = allocateValue(length);
+            page = (int) (position / PAGE_SIZE);
+            offset = (int) (position % PAGE_SIZE);
+            chunk(page).put(chunkOffset(page) + offset, value, value.position(), length);
+        }
+
+        if (root == NULL) {
+            root = allocatePage();
+            initNode(root, LEAF);
+        } else {
+            root = own(root);
+        }
+        ByteBuffer oldValue = put(root, key, page, offset, length);
+        if (overflow(root)) {
+            // 根节点分裂，树长高一层
+            int newRoot = allocatePage();
+            initNode(newRoot, INNER);
+            putInt(newRoot, INNER_ENTRIES - 4, root);
+            root = newRoot;
+            split(root, 0);
+        }
+        return oldValue;
+    }
+
+    @Override
+    public ByteBuffer get(Long key) {
+        openCheck();
+        keyNotNullCheck(key);
+        if (root == NULL) return null;
+        int leaf = leaf(key);
+        int index = search(leaf, key);
+        return index >= 0 ? value(leaf, index) : null;
+    }
+
+    @Override
+    public ByteBuffer remove(Long key) {
+        openCheck();
+        keyNotNullCheck(key);
+        // 先确认key存在，避免无谓地复制路径上的页
+        if (root == NULL) return null;
+        int leaf = leaf(key);
+        int index = search(leaf, key);
+        if (index < 0) return null;
+        // value在单独的页里，复制叶子节点不影响这个切片
+        ByteBuffer oldValue = value(leaf, index);
+
+        root = remove(root, key);
+        // 根节点只剩一个子节点，树变矮一层
+        while (root != NULL && type(root) == INNER && count(root) == 0) {
+            root = child(root, 0);
+        }
+        return oldValue;
+    }
+
+    @Override
+    public boolean containsKey(Long key) {
+        openCheck();
+        keyNotNullCheck(key);
+        return root != NULL && search(leaf(key), key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(ByteBuffer value) {
+        openCheck();
+        boolean[] found = {false};
+        traversal(new Visitor<Long, ByteBuffer>() {
+            @Override
+            public boolean visit(Long key, ByteBuffer v) {
+                return found[0] = value == null ? v == null : value.equals(v);
+            }
+        });
+        return found[0];
+    }
+
+    @Override
+    public void traversal(Visitor<Long, ByteBuffer> visitor) {
+        openCheck();
+        if (visitor == null || root == NULL) return;
+        traversal(root, visitor);
+    }
+
+    /**
+     * 提交当前事务：先把这个事务写入的页刷到磁盘，再写入并刷新元数据页
+     * 元数据页写完的那一刻提交才生效
+     */
+    public void commit() {
+        openCheck();
+        writeCommit();
+    }
+
+    /**
+     * 构造方法里创建空映射的时候也要提交，所以不能调用可以被重写的commit
+     */
+    private void writeCommit() {
+        // 写时复制保证了被修改的页都在committedPageCount之后
+        int fromChunk = committedPageCount >>> CHUNK_SHIFT;
+        int toChunk = (pageCount - 1) >>> CHUNK_SHIFT;
+        for (int i = fromChunk; i <= toChunk && i < chunks.length; i++) {
+            chunks[i].force();
+        }
+
+        long newTxid = txid + 1;
+        int meta = (int) (newTxid & 1);
+        putLong(meta, META_MAGIC, MAGIC);
+        putInt(meta, META_VERSION, VERSION);
+        putInt(meta, META_PAGE_SIZE, PAGE_SIZE);
+        putLong(meta, META_TXID, newTxid);
+        putInt(meta, META_ROOT, root);
+        putInt(meta, META_PAGE_COUNT, pageCount);
+        putLong(meta, META_SIZE, size);
+        putInt(meta, META_CHECKSUM, checksum(meta));
+        chunks[0].force(meta * PAGE_SIZE, PAGE_SIZE);
+
+        txid = newTxid;
+        committedRoot = root;
+        committedPageCount = pageCount;
+        committedSize = size;
+        valuePage = NULL;
+    }
+
+    /**
+     * 放弃当前事务的所有修改，回到最近一次提交的状态
+     */
+    public void rollback() {
+        openCheck();
+        root = committedRoot;
+        pageCount = committedPageCount;
+        size = committedSize;
+        valuePage = NULL;
+    }
+
+    /**
+     * 关闭文件，没有提交的修改会被丢弃
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        chunks = null;
+        channel.close();
+    }
+
+    /**
+     * 往page为根的子树中添加，page必须是当前事务分配的页
+     * 子节点溢出了由page负责分裂，page自己溢出了留给调用者分裂
+     * @return 原来的value
+     */
+    private ByteBuffer put(int page, long key, int valuePage, int valueOffset, int valueLength) {
+        if (type(page) == LEAF) {
+            ByteBuffer oldValue = null;
+            int index = search(page, key);
+            if (index < 0) {
+                index = -(index + 1);
+                int count = count(page);
+                move(page, leafEntry(index), leafEntry(index + 1), (count - index) * LEAF_ENTRY);
+                putLong(page, leafEntry(index), key);
+                count(page, count + 1);
+                size++;
+            } else {
+                oldValue = value(page, index);
+            }
+            int entry = leafEntry(index);
+            putInt(page, entry + ENTRY_VALUE_PAGE, valuePage);
+            putInt(page, entry + ENTRY_VALUE_OFFSET, valueOffset);
+            putInt(page, entry + ENTRY_VALUE_LENGTH, valueLength);
+            return oldValue;
+        }
+
+        int index = childIndex(page, key);
+        int child = own(child(page, index));
+        child(page, index, child);
+        ByteBuffer oldValue = put(child, key, valuePage, valueOffset, valueLength);
+        if (overflow(child)) split(page, index);
+        return oldValue;
+    }
+
+    private boolean overflow(int page) {
+        return count(page) > (type(page) == LEAF ? LEAF_MAX : INNER_MAX);
+    }
+
+    /**
+     * 分裂page的第index个子节点，把分隔key和右半部分插入到page中
+     */
+    private void split(int page, int index) {
+        int child = child(page, index);
+        int right = allocatePage();
+        long splitKey = type(child) == LEAF ? splitLeaf(child, right) : splitInner(child, right);
+        int count = count(page);
+        move(page, innerEntry(index), innerEntry(index + 1), (count - index) * INNER_ENTRY);
+        putLong(page, innerEntry(index), splitKey);
+        putInt(page, innerEntry(index) + 8, right);
+        count(page, count + 1);
+    }
+
+    /**
+     * 右半部分移动到right
+     * @return 分隔key
+     */
+    private long splitLeaf(int page, int right) {
+        int count = count(page);
+        int mid = count >> 1;
+        initNode(right, LEAF);
+        copy(page, leafEntry(mid), right, leafEntry(0), (count - mid) * LEAF_ENTRY);
+        count(right, count - mid);
+        count(page, mid);
+        // 叶子节点分裂，右半部分的第一个key复制一份上去作为分隔key
+        return key(right, 0);
+    }
+
+    /**
+     * 右半部分移动到right
+     * @return 分隔key
+     */
+    private long splitInner(int page, int right) {
+        int count = count(page);
+        int mid = count >> 1;
+        initNode(right, INNER);
+        // 中间的key移动到父节点，它右边的子节点成为右半部分的child0
+        putInt(right, INNER_ENTRIES - 4, child(page, mid + 1));
+        copy(page, innerEntry(mid + 1), right, innerEntry(0), (count - mid - 1) * INNER_ENTRY);
+        count(right, count - mid - 1);
+        count(page, mid);
+        return innerKey(page, mid);
+    }
+
+    /**
+     * 从page为根的子树中删除key（调用前已经确认key存在）
+     * @return 修改之后page的页号，节点变空了返回NULL
+     */
+    private int remove(int page, long key) {
+        page = own(page);
+        int count = count(page);
+        if (type(page) == LEAF) {
+            int index = search(page, key);
+            move(page, leafEntry(index + 1), leafEntry(index), (count - index - 1) * LEAF_ENTRY);
+            count(page, count - 1);
+            size--;
+            return count == 1 ? NULL : page;
+        }
+
+        int index = childIndex(page, key);
+        int child = remove(child(page, index), key);
+        if (child != NULL) {
+            child(page, index, child);
+            return page;
+        }
+        // 子节点变空了，把它和一个分隔key一起删掉
+        if (count == 0) return NULL;
+        if (index == 0) {
+            putInt(page, INNER_ENTRIES - 4, child(page, 1));
+            move(page, innerEntry(1), innerEntry(0), (count - 1) * INNER_ENTRY);
+        } else {
+            move(page, innerEntry(index), innerEntry(index - 1), (count - index) * INNER_ENTRY);
+        }
+        count(page, count - 1);
+        return page;
+    }
+
+    private boolean traversal(int page, Visitor<Long, ByteBuffer> visitor) {
+        int count = count(page);
+        if (type(page) == LEAF) {
+            for (int i = 0; i < count; i++) {
+                if (visitor.visit(key(page, i), value(page, i))) return true;
+            }
+            return false;
+        }
+        for (int i = 0; i <= count; i++) {
+            if (traversal(child(page, i), visitor)) return true;
+        }
+        return false;
+    }
+
+    private int leaf(long key) {
+        int page = root;
+        while (type(page) == INNER) {
+            page = child(page, childIndex(page, key));
+        }
+        return page;
+    }
+
+    /**
+     * 在叶子节点中二分查找
+     * @return 找到了返回下标，找不到返回-(插入位置 + 1)
+     */
+    private int search(int page, long key) {
+        int begin = 0;
+        int end = count(page);
+        while (begin < end) {
+            int mid = (begin + end) >>> 1;
+            long midKey = key(page, mid);
+            if (key == midKey) return mid;
+            if (key > midKey) {
+                begin = mid + 1;
+            } else {
+                end = mid;
+            }
+        }
+        return -(begin + 1);
+    }
+
+    /**
+     * key所在的子节点：第一个大于key的分隔key的下标
+     */
+    private int childIndex(int page, long key) {
+        int begin = 0;
+        int end = count(page);
+        while (begin < end) {
+            int mid = (begin + end) >>> 1;
+            if (key < innerKey(page, mid)) {
+                end = mid;
+            } else {
+                begin = mid + 1;
+            }
+        }
+        return begin;
+    }
+
+    /**
+     * 已经提交的页不能修改，复制到新页
+     */
+    private int own(int page) {
+        if (page >= committedPageCount) return page;
+        int copy = allocatePage();
+        copy(page, 0, copy, 0, PAGE_SIZE);
+        return copy;
+    }
+
+    private int allocatePage() {
+        ensureMapped(pageCount + 1);
+        return pageCount++;
+    }
+
+    /**
+     * 为value分配空间，小value挤在当前事务的value页中，大value占用若干连续的页（不跨块）
+     * @return value在文件中的位置
+     */
+    private long allocateValue(int length) {
+        if (valuePage != NULL && valueOffset + length <= PAGE_SIZE) {
+            long position = (long) valuePage * PAGE_SIZE + valueOffset;
+            valueOffset += length;
+            return position;
+        }
+        int pages = Math.max(1, (length + PAGE_SIZE - 1) / PAGE_SIZE);
+        if (pages > CHUNK_PAGES) {
+            throw new IllegalArgumentException("value too large");
+        }
+        if ((pageCount & CHUNK_MASK) + pages > CHUNK_PAGES) {
+            // 当前块剩下的页不够，从下一块开始
+            pageCount = (pageCount & ~CHUNK_MASK) + CHUNK_PAGES;
+        }
+        ensureMapped(pageCount + pages);
+        int first = pageCount;
+        pageCount += pages;
+        // 最后一页剩下的空间留给后面的小value
+        valuePage = pageCount - 1;
+        valueOffset = length - (pages - 1) * PAGE_SIZE;
+        return (long) first * PAGE_SIZE;
+    }
+
+    /**
+     * 保证[0, pages)这些页都已经映射，映射超出文件大小的部分会让文件变大
+     */
+    private void ensureMapped(int pages) {
+        int chunkCount = (pages + CHUNK_PAGES - 1) >>> CHUNK_SHIFT;
+        if (chunkCount <= chunks.length) return;
+        MappedByteBuffer[] newChunks = new MappedByteBuffer[chunkCount];
+        System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+        try {
+            for (int i = chunks.length; i < chunkCount; i++) {
+                newChunks[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) i * CHUNK_PAGES * PAGE_SIZE, (long) CHUNK_PAGES * PAGE_SIZE);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        chunks = newChunks;
+    }
+
+    /**
+     * 提交一个空的映射，之后这个文件才能被load
+     */
+    private void create() {
+        pageCount = committedPageCount = META_PAGES;
+        writeCommit();
+    }
+
+    /**
+     * 从两个元数据页中选出校验通过的、事务id较大的那个
+     * 都没有通过校验、并且元数据页全是0，说明创建文件之后第一次提交还没完成就崩溃了，当作新文件处理
+     */
+    private void load() throws IOException {
+        int meta = -1;
+        for (int i = 0; i < META_PAGES; i++) {
+            if (!validMeta(i)) continue;
+            if (meta < 0 || getLong(i, META_TXID) > getLong(meta, META_TXID)) {
+                meta = i;
+            }
+        }
+        if (meta < 0) {
+            for (int i = 0; i < META_PAGES; i++) {
+                if (!zeroed(i)) throw new IOException("no valid meta page");
+            }
+            create();
+            return;
+        }
+        txid = getLong(meta, META_TXID);
+        root = committedRoot = getInt(meta, META_ROOT);
+        pageCount = committedPageCount = getInt(meta, META_PAGE_COUNT);
+        size = committedSize = getLong(meta, META_SIZE);
+        ensureMapped(pageCount);
+    }
+
+    private boolean validMeta(int meta) {
+        return getLong(meta, META_MAGIC) == MAGIC
+                && getInt(meta, META_VERSION) == VERSION
+                && getInt(meta, META_PAGE_SIZE) == PAGE_SIZE
+                && getInt(meta, META_CHECKSUM) == checksum(meta);
+    }
+
+    private boolean zeroed(int page) {
+        for (int offset = 0; offset < PAGE_SIZE; offset += 8) {
+            if (getLong(page, offset) != 0) return false;
+        }
+        return true;
+    }
+
+    private int checksum(int meta) {
+        CRC32 crc = new CRC32();
+        crc.update(chunk(meta).slice(chunkOffset(meta), META_CHECKSUM));
+        return (int) crc.getValue();
+    }
+
+    private ByteBuffer value(int page, int index) {
+        int entry = leafEntry(index);
+        int length = getInt(page, entry + ENTRY_VALUE_LENGTH);
+        if (length < 0) return null;
+        int valuePage = getInt(page, entry + ENTRY_VALUE_PAGE);
+        int offset = getInt(page, entry + ENTRY_VALUE_OFFSET);
+        return chunk(valuePage).slice(chunkOffset(valuePage) + offset, length).asReadOnlyBuffer();
+    }
+
+    private void initNode(int page, byte type) {
+        chunk(page).put(chunkOffset(page) + TYPE, type);
+        count(page, 0);
+    }
+
+    private byte type(int page) {
+        return chunk(page).get(chunkOffset(page) + TYPE);
+    }
+
+    private int count(int page) {
+        return chunk(page).getShort(chunkOffset(page) + COUNT);
+    }
+
+    private void count(int page, int count) {
+        chunk(page).putShort(chunkOffset(page) + COUNT, (short) count);
+    }
+
+    private long key(int page, int index) {
+        return getLong(page, leafEntry(index));
+    }
+
+    private long innerKey(int page, int index) {
+        return getLong(page, innerEntry(index));
+    }
+
+    private int child(int page, int index) {
+        return getInt(page, index == 0 ? INNER_ENTRIES - 4 : innerEntry(index - 1) + 8);
+    }
+
+    private void child(int page, int index, int child) {
+        putInt(page, index == 0 ? INNER_ENTRIES - 4 : innerEntry(index - 1) + 8, child);
+    }
+
+    private static int leafEntry(int index) {
+        return DATA + index * LEAF_ENTRY;
+    }
+
+    private static int innerEntry(int index) {
+        return INNER_ENTRIES + index * INNER_ENTRY;
+    }
+
+    /**
+     * 页内移动字节，区间可以重叠
+     * 按绝对位置的批量put在源和目标是同一块内存时，效果等同于先复制到临时区域，所以直接原地移动
+     */
+    private void move(int page, int from, int to, int length) {
+        if (length <= 0) return;
+        ByteBuffer chunk = chunk(page);
+        int base = chunkOffset(page);
+        chunk.put(base + to, chunk, base + from, length);
+    }
+
+    private void copy(int fromPage, int from, int toPage, int to, int length) {
+        chunk(toPage).put(chunkOffset(toPage) + to, chunk(fromPage), chunkOffset(fromPage) + from, length);
+    }
+
+    private MappedByteBuffer chunk(int page) {
+        return chunks[page >>> CHUNK_SHIFT];
+    }
+
+    private static int chunkOffset(int page) {
+        return (page & CHUNK_MASK) * PAGE_SIZE;
+    }
+
+    private long getLong(int page, int offset) {
+        return chunk(page).getLong(chunkOffset(page) + offset);
+    }
+
+    private void putLong(int page, int offset, long value) {
+        chunk(page).putLong(chunkOffset(page) + offset, value);
+    }
+
+    private int getInt(int page, int offset) {
+        return chunk(page).getInt(chunkOffset(page) + offset);
+    }
+
+    private void putInt(int page, int offset, int value) {
+        chunk(page).putInt(chunkOffset(page) + offset, value);
+    }
+
+    private void openCheck() {
+        if (closed) {
+            throw new IllegalStateException("map is closed");
+        }
+    }
+
+    private void keyNotNullCheck(Long key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null");
+        }
+    }
+}
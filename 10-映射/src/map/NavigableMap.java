@@ -0,0 +1,50 @@
+package map;
+
+/**
+ * 有序映射：可以根据key的大小关系进行查找
+ * 找不到符合条件的key时返回null
+ */
+public interface NavigableMap<K, V> extends Map<K, V> {
+
+    /**
+     * 最小的key
+     */
+    K firstKey();
+
+    /**
+     * 最大的key
+     */
+    K lastKey();
+
+    /**
+     * 小于等于key的最大key
+     */
+    K floorKey(K key);
+
+    /**
+     * 大于等于key的最小key
+     */
+    K ceilingKey(K key);
+
+    /**
+     * 小于key的最大key
+     */
+    K lowerKey(K key);
+
+    /**
+     * 大于key的最小key
+     */
+    K higherKey(K key);
+
+    /**
+     * 删除最小的key
+     * @return 被删除的key
+     */
+    K pollFirst();
+
+    /**
+     * 删除最大的key
+     * @return 被删除的key
+     */
+    K pollLast();
+}
@@ -0,0 +1,199 @@
+package map;
+
+import java.util.Arrays;
+
+/**
+ * 保序编码之后的key
+ * key被编码成字节串，按无符号字节的字典序比较，结果和key原来的大小关系一致
+ * 字节串按大端每8个字节打包成一个long（最后一个不足8个字节的后面补0），
+ * 第一个long单独放在prefix里，大多数比较一次Long.compareUnsigned就能分出大小，
+ * 前缀相同的再逐个比较剩下的long，比较的过程不需要解码、也不需要分配内存
+ *
+ * 组合key用Builder按字段的优先级依次写入，效果和按字段依次比较的链式Comparator一样
+ */
+public class NormalizedKey implements Comparable<NormalizedKey> {
+
+    private static final long[] EMPTY = {};
+
+    private final long prefix;
+    /**
+     * 第8个字节之后的部分
+     */
+    private final long[] tail;
+    /**
+     * 字节数
+     */
+    private final int length;
+
+    public NormalizedKey(byte[] bytes) {
+        this(bytes, bytes.length);
+    }
+
+    /**
+     * builder中已经写入的字节
+     */
+    NormalizedKey(Builder builder) {
+        this(builder.buffer, builder.length);
+    }
+
+    private NormalizedKey(byte[] bytes, int length) {
+        this.length = length;
+        this.prefix = word(bytes, 0, length);
+        int words = (length + 7) >>> 3;
+        this.tail = words <= 1 ? EMPTY : new long[words - 1];
+        for (int i = 0; i < tail.length; i++) {
+            tail[i] = word(bytes, (i + 1) << 3, length);
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            long word = i < 8 ? prefix : tail[(i >>> 3) - 1];
+            bytes[i] = (byte) (word >>> (56 - ((i & 7) << 3)));
+        }
+        return bytes;
+    }
+
+    @Override
+    public int compareTo(NormalizedKey o) {
+        if (prefix != o.prefix) return Long.compareUnsigned(prefix, o.prefix);
+        long[] t1 = tail;
+        long[] t2 = o.tail;
+        int n = Math.min(t1.length, t2.length);
+        for (int i = 0; i < n; i++) {
+            if (t1[i] != t2[i]) return Long.compareUnsigned(t1[i], t2[i]);
+        }
+        // 补的0和另一个字节串中对应的字节相同，说明短的是长的前缀
+        return Integer.compare(length, o.length);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof NormalizedKey)) return false;
+        NormalizedKey o = (NormalizedKey) obj;
+        return prefix == o.prefix && length == o.length && Arrays.equals(tail, o.tail);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(prefix) + Arrays.hashCode(tail);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : toByteArray()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * bytes从from开始的8个字节（超出length的部分是0）按大端组成的long
+     */
+    private static long word(byte[] bytes, int from, int length) {
+        long word = 0;
+        for (int i = from; i < from + 8; i++) {
+            word <<= 8;
+            if (i < length) {
+                word |= bytes[i] & 0xff;
+            }
+        }
+        return word;
+    }
+
+    /**
+     * 把字段依次编码进一个可以重复使用的缓冲区
+     * 每种字段的编码都是自定界的（定长，或者有结束标记），所以前面的字段相同时才会比较后面的字段
+     */
+    public static class Builder {
+        private byte[] buffer = new byte[32];
+        private int length;
+
+        /**
+         * 符号位取反之后按大端写入，负数就排在正数前面了
+         */
+        public Builder writeInt(int value) {
+            ensureCapacity(4);
+            value ^= Integer.MIN_VALUE;
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buffer[length++] = (byte) (value >>> shift);
+            }
+            return this;
+        }
+
+        public Builder writeLong(long value) {
+            ensureCapacity(8);
+            value ^= Long.MIN_VALUE;
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[length++] = (byte) (value >>> shift);
+            }
+            return this;
+        }
+
+        /**
+         * 按UTF-8编码，以0x00 0x00结尾，字符串中的0x00写成0x00 0xFF，
+         * 这样短的字符串（遇到结尾标记）一定排在以它为前缀的长字符串前面
+         * 注意：UTF-8的字节顺序就是码点的顺序，和String.compareTo（按UTF-16的char比较）
+         * 只在增补字符和U+E000~U+FFFF之间的字符比较时不一样
+         * 不成对的代理字符按码点编码成3个字节
+         */
+        public Builder writeString(String value) {
+            ensureCapacity(value.length() * 3 + 2);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == 0) {
+                    buffer[length++] = 0;
+                    buffer[length++] = (byte) 0xff;
+                } else if (c < 0x80) {
+                    buffer[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[length++] = (byte) (0xc0 | (c >> 6));
+                    buffer[length++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else {
+                    // 不成对的代理字符也在这里按3个字节编码，像String.getBytes那样替换成'?'的话会和"?"相等
+                    buffer[length++] = (byte) (0xe0 | (c >> 12));
+                    buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buffer[length++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            buffer[length++] = 0;
+            buffer[length++] = 0;
+            return this;
+        }
+
+        /**
+         * 清空已经写入的字段，缓冲区留着重复使用
+         */
+        public Builder reset() {
+            length = 0;
+            return this;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        public NormalizedKey build() {
+            return new NormalizedKey(this);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra <= buffer.length) return;
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, length + extra));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package map;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * key先被编码成NormalizedKey再放进TreeMap的映射
+ * 每次操作只编码一次key，树中每一层的比较都是NormalizedKey的字节比较，
+ * 不用像链式的Comparator那样每次比较都重新取出、比较各个字段
+ * 编码之后的key保存着原来的key，导航方法、遍历返回的都是原来的key
+ *
+ * 编码结果必须和key的顺序、相等关系一致：相等的key编码相同，不相等的key编码不同
+ * 不是线程安全的
+ */
+public class NormalizedTreeMap<K, V> implements NavigableMap<K, V> {
+
+    /**
+     * 把key的各个字段按优先级依次写进builder
+     */
+    public interface KeyEncoder<K> {
+        void encode(K key, NormalizedKey.Builder builder);
+    }
+
+    private final TreeMap<NormalizedKey, V> map = new TreeMap<>();
+    private final KeyEncoder<K> encoder;
+    private final NormalizedKey.Builder builder = new NormalizedKey.Builder();
+
+    public NormalizedTreeMap(KeyEncoder<K> encoder) {
+        this.encoder = encoder;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return map.put(normalize(key), value);
+    }
+
+    @Override
+    public V get(K key) {
+        return map.get(normalize(key));
+    }
+
+    @Override
+    public V remove(K key) {
+        return map.remove(normalize(key));
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return map.containsKey(normalize(key));
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        return map.containsValue(value);
+    }
+
+    /**
+     * 按编码之后的顺序遍历
+     */
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        if (visitor == null) return;
+        map.traversal(new Visitor<NormalizedKey, V>() {
+            @Override
+            public boolean visit(NormalizedKey key, V value) {
+                return visitor.visit(original(key), value);
+            }
+        });
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return map.putIfAbsent(normalize(key), value);
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        return map.computeIfAbsent(normalize(key), k -> mappingFunction.apply(key));
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return map.computeIfPresent(normalize(key), (k, v) -> remappingFunction.apply(key, v));
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return map.compute(normalize(key), (k, v) -> remappingFunction.apply(key, v));
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return map.merge(normalize(key), value, remappingFunction);
+    }
+
+    @Override
+    public K firstKey() {
+        return original(map.firstKey());
+    }
+
+    @Override
+    public K lastKey() {
+        return original(map.lastKey());
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return original(map.floorKey(normalize(key)));
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return original(map.ceilingKey(normalize(key)));
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return original(map.lowerKey(normalize(key)));
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return original(map.higherKey(normalize(key)));
+    }
+
+    @Override
+    public K pollFirst() {
+        return original(map.pollFirst());
+    }
+
+    @Override
+    public K pollLast() {
+        return original(map.pollLast());
+    }
+
+    private Key<K> normalize(K key) {
+        keyNotNullCheck(key);
+        encoder.encode(key, builder.reset());
+        return new Key<>(builder, key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K original(NormalizedKey key) {
+        return key == null ? null : ((Key<K>) key).original;
+    }
+
+    private void keyNotNullCheck(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null");
+        }
+    }
+
+    /**
+     * 带着原来的key的NormalizedKey，比较、相等只看编码
+     */
+    private static class Key<K> extends NormalizedKey {
+        final K original;
+
+        Key(NormalizedKey.Builder builder, K original) {
+            super(builder);
+            this.original = original;
+        }
+    }
+}
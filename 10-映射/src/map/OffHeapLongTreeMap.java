@@ -0,0 +1,660 @@
+package map;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * key、value都是long的红黑树映射，节点存放在堆外内存中
+ * 内存按块（chunk）分配，每块是一个direct ByteBuffer，包含固定数量、固定大小的槽位，
+ * 一个槽位就是一个节点，用int下标表示（0代表null），被删除的槽位放进空闲链表重复利用
+ * Java堆上只有几个ByteBuffer对象，映射再大也不会增加GC的负担
+ * 第一块从很小开始按需翻倍，长到完整大小之后才分配后面的块，所以小映射只占很少的内存
+ * 红黑树的调整逻辑和TreeMap一样
+ *
+ * 用完之后需要调用close()，之后不能再使用
+ * 注意：Java没有立即释放direct ByteBuffer的公开API，close()之后内存要等ByteBuffer被GC回收时才归还给操作系统
+ */
+public class OffHeapLongTreeMap implements AutoCloseable {
+
+    private static final int NULL = 0;
+    private static final int RED = 0;
+    private static final int BLACK = 1;
+
+    /**
+     * 槽位的布局：key(8) value(8) left(4) right(4) parent(4) color(4)
+     */
+    private static final int KEY = 0;
+    private static final int VALUE = 8;
+    private static final int LEFT = 16;
+    private static final int RIGHT = 20;
+    private static final int PARENT = 24;
+    private static final int COLOR = 28;
+    private static final int SLOT_SIZE = 32;
+
+    /**
+     * 每块2^20个槽位，32MB
+     */
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SLOTS - 1;
+    /**
+     * 第一块的初始槽位数量，32KB
+     */
+    private static final int INITIAL_SLOTS = 1 << 10;
+
+    private int size;
+    private int root = NULL;
+    private ByteBuffer[] chunks = new ByteBuffer[1];
+    private int chunkCount;
+    private int free = NULL;
+    /**
+     * [1, used)是用过的槽位，槽位下标最大是Integer.MAX_VALUE，所以用long
+     */
+    private long used = 1;
+    /**
+     * 所有块加起来的槽位数量
+     */
+    private long capacity;
+    private boolean closed;
+
+    /**
+     * 导航方法找不到key时返回的key
+     */
+    private final long noEntryKey;
+    /**
+     * get、put、remove找不到key时返回的值
+     */
+    private final long noEntryValue;
+
+    public OffHeapLongTreeMap() {
+        this(Long.MIN_VALUE, 0);
+    }
+
+    public OffHeapLongTreeMap(long noEntryKey, long noEntryValue) {
+        this.noEntryKey = noEntryKey;
+        this.noEntryValue = noEntryValue;
+    }
+
+    public long getNoEntryKey() {
+        return noEntryKey;
+    }
+
+    public long getNoEntryValue() {
+        return noEntryValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 清空，已经分配的内存保留下来继续使用
+     */
+    public void clear() {
+        openCheck();
+        root = NULL;
+        free = NULL;
+        used = 1;
+        size = 0;
+    }
+
+    /**
+     * 丢弃所有的块，之后不能再使用
+     * 堆外内存在这些ByteBuffer被GC回收时才归还给操作系统，不是立即释放
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        chunks = null;
+        chunkCount = 0;
+        capacity = 0;
+        root = NULL;
+        size = 0;
+    }
+
+    public long put(long key, long value) {
+        openCheck();
+        if (root == NULL) {
+            root = allocate(key, value, NULL);
+            size++;
+            afterPut(root);
+            return noEntryValue;
+        }
+        int parent = root;
+        int node = root;
+        int cmp = 0;
+        while (node != NULL) {
+            parent = node;
+            cmp = Long.compare(key, key(node));
+            if (cmp > 0) {
+                node = right(node);
+            } else if (cmp < 0) {
+                node = left(node);
+            } else {
+                long oldValue = value(node);
+                putLong(node, VALUE, value);
+                return oldValue;
+            }
+        }
+        int newNode = allocate(key, value, parent);
+        if (cmp > 0) {
+            right(parent, newNode);
+        } else {
+            left(parent, newNode);
+        }
+        size++;
+        afterPut(newNode);
+        return noEntryValue;
+    }
+
+    public long get(long key) {
+        int node = node(key);
+        return node != NULL ? value(node) : noEntryValue;
+    }
+
+    public long remove(long key) {
+        int node = node(key);
+        if (node == NULL) return noEntryValue;
+        long oldValue = value(node);
+        remove(node);
+        return oldValue;
+    }
+
+    public boolean containsKey(long key) {
+        return node(key) != NULL;
+    }
+
+    public boolean containsValue(long value) {
+        openCheck();
+        for (int node = first(); node != NULL; node = successor(node)) {
+            if (value(node) == value) return true;
+        }
+        return false;
+    }
+
+    public long firstKey() {
+        openCheck();
+        return keyOrNoEntry(first());
+    }
+
+    public long lastKey() {
+        openCheck();
+        int node = root;
+        if (node == NULL) return noEntryKey;
+        while (right(node) != NULL) {
+            node = right(node);
+        }
+        return key(node);
+    }
+
+    /**
+     * 小于等于key的最大key
+     */
+    public long floorKey(long key) {
+        return keyOrNoEntry(floorNode(key, true));
+    }
+
+    /**
+     * 大于等于key的最小key
+     */
+    public long ceilingKey(long key) {
+        return keyOrNoEntry(ceilingNode(key, true));
+    }
+
+    /**
+     * 小于key的最大key
+     */
+    public long lowerKey(long key) {
+        return keyOrNoEntry(floorNode(key, false));
+    }
+
+    /**
+     * 大于key的最小key
+     */
+    public long higherKey(long key) {
+        return keyOrNoEntry(ceilingNode(key, false));
+    }
+
+    public void traversal(LongLongMap.Visitor visitor) {
+        if (visitor == null) return;
+        openCheck();
+        for (int node = first(); node != NULL; node = successor(node)) {
+            if (visitor.visit(key(node), value(node))) return;
+        }
+    }
+
+    /**
+     * 按顺序遍历[fromKey, toKey)范围内的元素，复杂度O(logn + k)
+     */
+    public void traversal(long fromKey, long toKey, LongLongMap.Visitor visitor) {
+        if (visitor == null) return;
+        for (int node = ceilingNode(fromKey, true); node != NULL; node = successor(node)) {
+            long key = key(node);
+            if (key >= toKey) return;
+            if (visitor.visit(key, value(node))) return;
+        }
+    }
+
+    private void remove(int node) {
+        size--;
+        if (left(node) != NULL && right(node) != NULL) { // 度为2
+            int s = successor(node);
+            putLong(node, KEY, key(s));
+            putLong(node, VALUE, value(s));
+            node = s;
+        }
+
+        int replacement = left(node) != NULL ? left(node) : right(node);
+        int p = parent(node);
+
+        if (replacement != NULL) { // 度为1
+            parent(replacement, p);
+            if (p == NULL) {
+                root = replacement;
+            } else if (node == right(p)) {
+                right(p, replacement);
+            } else {
+                left(p, replacement);
+            }
+            // 删除节点之后的处理
+            afterRemove(replacement);
+        } else if (p == NULL) { // 度为0，并且是根节点
+            root = NULL;
+        } else { // 度为0
+            if (node == left(p)) {
+                left(p, NULL);
+            } else {
+                right(p, NULL);
+            }
+            // 删除节点之后的处理（要用到node的parent，所以最后才回收）
+            afterRemove(node);
+        }
+        release(node);
+    }
+
+    private void afterPut(int node) {
+        int parent = parent(node);
+
+        // 添加的是根节点 或者上溢达到了根节点
+        if (parent == NULL) {
+            black(node);
+            return;
+        }
+
+        // 如果父节点是黑色，直接返回
+        if (isBlack(parent)) return;
+
+        // uncle节点
+        int uncle = sibling(parent);
+        // 祖父节点
+        int grand = parent(parent);
+        red(grand);
+        if (isRed(uncle)) { // 叔父节点是红色
+            black(parent);
+            black(uncle);
+            // 把祖父节点当做是新添加的节点
+            afterPut(grand);
+            return;
+        }
+
+        if (isLeftChild(parent)) { // L
+            if (isLeftChild(node)) { // LL
+                black(parent);
+            } else { // LR
+                black(node);
+                rotateLeft(parent);
+            }
+            rotateRight(grand);
+        } else { // R
+            if (isLeftChild(node)) { // RL
+                black(node);
+                rotateRight(parent);
+            } else { // RR
+                black(parent);
+            }
+            rotateLeft(grand);
+        }
+    }
+
+    private void afterRemove(int node) {
+        // 如果删除的节点是红色
+        // 或者 用以取代删除节点的子节点是红色
+        if (isRed(node)) {
+            black(node);
+            return;
+        }
+        int parent = parent(node);
+        // 删除的是根节点
+        if (parent == NULL) return;
+
+        // 删除的是黑色叶子节点
+        // 判断被删除的node是左还是右
+        boolean left = left(parent) == NULL || isLeftChild(node);
+        int sibling = left ? right(parent) : left(parent);
+
+        if (left) { // 被删除的节点在左边，兄弟节点在右边
+            if (isRed(sibling)) { // 兄弟节点是红色
+                black(sibling);
+                red(parent);
+                rotateLeft(parent);
+                // 更换兄弟
+                sibling = right(parent);
+            }
+            // 兄弟节点必然是黑色
+            if (isBlack(left(sibling)) && isBlack(right(sibling))) {
+                // 兄弟节点没有一个红色子节点，父节点要向下跟兄弟节点合并
+                boolean parentBlack = isBlack(parent);
+                black(parent);
+                red(sibling);
+                if (parentBlack) {
+                    afterRemove(parent);
+                }
+            } else { // 兄弟节点至少有一个红色子节点,向兄弟节点借元素
+                // 兄弟节点的左边是黑色,兄弟要先旋转
+                if (isBlack(right(sibling))) {
+                    rotateRight(sibling);
+                    sibling = right(parent);
+                }
+                color(sibling, colorOf(parent));
+                black(right(sibling));
+                black(parent);
+                rotateLeft(parent);
+            }
+        } else { // 被删除的节点在右边，兄弟节点在左边
+            if (isRed(sibling)) { // 兄弟节点是红色
+                black(sibling);
+                red(parent);
+                rotateRight(parent);
+                // 更换兄弟
+                sibling = left(parent);
+            }
+            // 兄弟节点必然是黑色
+            if (isBlack(left(sibling)) && isBlack(right(sibling))) {
+                // 兄弟节点没有一个红色子节点，父节点要向下跟兄弟节点合并
+                boolean parentBlack = isBlack(parent);
+                black(parent);
+                red(sibling);
+                if (parentBlack) {
+                    afterRemove(parent);
+                }
+            } else { // 兄弟节点至少有一个红色子节点,向兄弟节点借元素
+                // 兄弟节点的左边是黑色,兄弟要先旋转
+                if (isBlack(left(sibling))) {
+                    rotateLeft(sibling);
+                    sibling = left(parent);
+                }
+                color(sibling, colorOf(parent));
+                black(left(sibling));
+                black(parent);
+                rotateRight(parent);
+            }
+        }
+    }
+
+    private int first() {
+        int node = root;
+        if (node == NULL) return NULL;
+        while (left(node) != NULL) {
+            node = left(node);
+        }
+        return node;
+    }
+
+    private int successor(int node) {
+        int p = right(node);
+        if (p != NULL) {
+            while (left(p) != NULL) {
+                p = left(p);
+            }
+            return p;
+        }
+
+        while (parent(node) != NULL && node == right(parent(node))) {
+            node = parent(node);
+        }
+        return parent(node);
+    }
+
+    private int node(long key) {
+        openCheck();
+        int node = root;
+        while (node != NULL) {
+            long k = key(node);
+            if (key == k) return node;
+            node = key > k ? right(node) : left(node);
+        }
+        return NULL;
+    }
+
+    private int floorNode(long key, boolean inclusive) {
+        openCheck();
+        int node = root;
+        int result = NULL;
+        while (node != NULL) {
+            long k = key(node);
+            if (key == k && inclusive) return node;
+            if (key > k) {
+                result = node;
+                node = right(node);
+            } else {
+                node = left(node);
+            }
+        }
+        return result;
+    }
+
+    private int ceilingNode(long key, boolean inclusive) {
+        openCheck();
+        int node = root;
+        int result = NULL;
+        while (node != NULL) {
+            long k = key(node);
+            if (key == k && inclusive) return node;
+            if (key < k) {
+                result = node;
+                node = left(node);
+            } else {
+                node = right(node);
+            }
+        }
+        return result;
+    }
+
+    private long keyOrNoEntry(int node) {
+        return node == NULL ? noEntryKey : key(node);
+    }
+
+    private void rotateLeft(int grand) {
+        int parent = right(grand);
+        int child = left(parent);
+
+        right(grand, child);
+        left(parent, grand);
+
+        afterRotate(grand, parent, child);
+    }
+
+    private void rotateRight(int grand) {
+        int parent = left(grand);
+        int child = right(parent);
+
+        left(grand, child);
+        right(parent, grand);
+
+        afterRotate(grand, parent, child);
+    }
+
+    private void afterRotate(int grand, int parent, int child) {
+        // 让parent成为子树的根节点
+        int grandParent = parent(grand);
+        parent(parent, grandParent);
+        if (grandParent == NULL) {
+            root = parent;
+        } else if (left(grandParent) == grand) {
+            left(grandParent, parent);
+        } else {
+            right(grandParent, parent);
+        }
+
+        // 更新child的parent
+        if (child != NULL) parent(child, grand);
+
+        //更新grand的parent
+        parent(grand, parent);
+    }
+
+    /**
+     * 分配一个槽位，优先使用空闲链表中的
+     */
+    private int allocate(long key, long value, int parent) {
+        int node;
+        if (free != NULL) {
+            node = free;
+            free = left(node);
+        } else {
+            if (used >= capacity) grow();
+            node = (int) used++;
+        }
+        putLong(node, KEY, key);
+        putLong(node, VALUE, value);
+        left(node, NULL);
+        right(node, NULL);
+        parent(node, parent);
+        putInt(node, COLOR, RED);
+        return node;
+    }
+
+    /**
+     * 回收槽位，放入空闲链表
+     */
+    private void release(int node) {
+        left(node, free);
+        free = node;
+    }
+
+    /**
+     * 第一块还没有长到完整大小的话，把它扩容为原来的2倍；否则再分配一个完整的块
+     */
+    private void grow() {
+        if (chunkCount == 1 && capacity < CHUNK_SLOTS) {
+            int slots = (int) capacity << 1;
+            ByteBuffer chunk = allocateChunk(slots);
+            ByteBuffer old = chunks[0].duplicate();
+            old.clear();
+            chunk.put(old).clear();
+            chunks[0] = chunk;
+            capacity = slots;
+            return;
+        }
+        if (chunkCount == chunks.length) {
+            if (chunkCount == 1 << (31 - CHUNK_SHIFT)) {
+                throw new IllegalStateException("map is full");
+            }
+            ByteBuffer[] newChunks = new ByteBuffer[chunkCount << 1];
+            System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+            chunks = newChunks;
+        }
+        int slots = chunkCount == 0 ? INITIAL_SLOTS : CHUNK_SLOTS;
+        chunks[chunkCount++] = allocateChunk(slots);
+        capacity += slots;
+    }
+
+    private ByteBuffer allocateChunk(int slots) {
+        return ByteBuffer.allocateDirect(slots * SLOT_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    private void openCheck() {
+        if (closed) {
+            throw new IllegalStateException("map is closed");
+        }
+    }
+
+    private long getLong(int node, int field) {
+        return chunks[node >>> CHUNK_SHIFT].getLong((node & CHUNK_MASK) * SLOT_SIZE + field);
+    }
+
+    private void putLong(int node, int field, long value) {
+        chunks[node >>> CHUNK_SHIFT].putLong((node & CHUNK_MASK) * SLOT_SIZE + field, value);
+    }
+
+    private int getInt(int node, int field) {
+        return chunks[node >>> CHUNK_SHIFT].getInt((node & CHUNK_MASK) * SLOT_SIZE + field);
+    }
+
+    private void putInt(int node, int field, int value) {
+        chunks[node >>> CHUNK_SHIFT].putInt((node & CHUNK_MASK) * SLOT_SIZE + field, value);
+    }
+
+    private long key(int node) {
+        return getLong(node, KEY);
+    }
+
+    private long value(int node) {
+        return getLong(node, VALUE);
+    }
+
+    private int left(int node) {
+        return getInt(node, LEFT);
+    }
+
+    private void left(int node, int left) {
+        putInt(node, LEFT, left);
+    }
+
+    private int right(int node) {
+        return getInt(node, RIGHT);
+    }
+
+    private void right(int node, int right) {
+        putInt(node, RIGHT, right);
+    }
+
+    private int parent(int node) {
+        return getInt(node, PARENT);
+    }
+
+    private void parent(int node, int parent) {
+        putInt(node, PARENT, parent);
+    }
+
+    private boolean isLeftChild(int node) {
+        int p = parent(node);
+        return p != NULL && left(p) == node;
+    }
+
+    private int sibling(int node) {
+        int p = parent(node);
+        if (p == NULL) return NULL;
+        return left(p) == node ? right(p) : left(p);
+    }
+
+    private void color(int node, int color) {
+        if (node == NULL) return;
+        putInt(node, COLOR, color);
+    }
+
+    private void red(int node) {
+        color(node, RED);
+    }
+
+    private void black(int node) {
+        color(node, BLACK);
+    }
+
+    private int colorOf(int node) {
+        return node == NULL ? BLACK : getInt(node, COLOR);
+    }
+
+    private boolean isBlack(int node) {
+        return colorOf(node) == BLACK;
+    }
+
+    private boolean isRed(int node) {
+        return colorOf(node) == RED;
+    }
+}
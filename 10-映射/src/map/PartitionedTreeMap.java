@@ -0,0 +1,404 @@
+package map;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 按照key的范围分区的线程安全TreeMap
+ * 每个分区负责一段连续的key：[low, high)，是一棵独立的TreeMap，有自己的读写锁，
+ * 落在不同分区的写操作可以并行执行
+ *
+ * 分区边界来自构造时传入的样本key的分位点；某个分区的元素数量明显多于平均值的时候，
+ * 会在它的中位数处一分为二（只会拆分，不会合并，所以边界只增不减）
+ * 拆分时旧分区保留下半部分，high缩小为中位数，上半部分成为新的分区，
+ * 所以操作在锁住分区之后要确认key仍然在这个分区的范围内，不在的话重新定位
+ */
+@SuppressWarnings("unchecked")
+public class PartitionedTreeMap<K, V> implements Map<K, V> {
+
+    /**
+     * 分区至少有这么多元素才会被拆分
+     */
+    private static final int MIN_SPLIT_SIZE = 1 << 10;
+
+    private final Comparator<K> comparator;
+    /**
+     * 按照low从小到大排列，拆分的时候整体替换（写时复制）
+     */
+    private volatile Partition<K, V>[] partitions;
+    private final int targetPartitions;
+    private final LongAdder size = new LongAdder();
+    /**
+     * 同一时刻只允许一个线程拆分分区
+     */
+    private final ReentrantLock splitLock = new ReentrantLock();
+
+    public PartitionedTreeMap() {
+        this(null, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * @param samples 用来估计key分布的样本
+     * @param partitionCount 分区数量
+     */
+    public PartitionedTreeMap(K[] samples, int partitionCount) {
+        this(samples, partitionCount, null);
+    }
+
+    public PartitionedTreeMap(K[] samples, int partitionCount, Comparator<K> comparator) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("partitionCount must be positive");
+        }
+        this.comparator = comparator;
+        this.targetPartitions = partitionCount;
+        K[] splits = splitPoints(samples, partitionCount);
+        Partition<K, V>[] partitions = newPartitionArray(splits.length + 1);
+        for (int i = 0; i < partitions.length; i++) {
+            K low = i == 0 ? null : splits[i - 1];
+            K high = i == splits.length ? null : splits[i];
+            partitions[i] = new Partition<>(new TreeMap<>(comparator), low, high);
+        }
+        this.partitions = partitions;
+    }
+
+    @Override
+    public int size() {
+        long size = this.size.sum();
+        return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        splitLock.lock();
+        try {
+            Partition<K, V>[] partitions = this.partitions;
+            for (Partition<K, V> p : partitions) {
+                p.lock.writeLock().lock();
+            }
+            try {
+                for (Partition<K, V> p : partitions) {
+                    size.add(-p.map.size());
+                    p.map.clear();
+                }
+            } finally {
+                for (Partition<K, V> p : partitions) {
+                    p.lock.writeLock().unlock();
+                }
+            }
+        } finally {
+            splitLock.unlock();
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return update(key, map -> map.put(key, value));
+    }
+
+    @Override
+    public V get(K key) {
+        keyNotNullCheck(key);
+        Partition<K, V> p = lock(key, false);
+        try {
+            return p.map.get(key);
+        } finally {
+            p.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public V remove(K key) {
+        keyNotNullCheck(key);
+        Partition<K, V> p = lock(key, true);
+        try {
+            int oldSize = p.map.size();
+            V oldValue = p.map.remove(key);
+            if (p.map.size() != oldSize) size.decrement();
+            return oldValue;
+        } finally {
+            p.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        keyNotNullCheck(key);
+        Partition<K, V> p = lock(key, false);
+        try {
+            return p.map.containsKey(key);
+        } finally {
+            p.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        for (Partition<K, V> p : partitions) {
+            p.lock.readLock().lock();
+            try {
+                if (p.map.containsValue(value)) return true;
+            } finally {
+                p.lock.readLock().unlock();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按照key从小到大，一个分区一个分区地遍历，遍历某个分区的时候持有它的读锁
+     * 每遍历完一个分区，从它的high重新定位下一个分区，所以并发的拆分不会导致遗漏或者重复
+     * visitor里面不能修改这个map
+     */
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        if (visitor == null) return;
+        K from = null;
+        while (true) {
+            // 第一个分区始终是partitions[0]，它的low是null
+            Partition<K, V> p = from == null ? lockFirst() : lock(from, false);
+            K next;
+            try {
+                TreeMap<K, V>.Cursor cursor = p.map.cursor();
+                for (boolean valid = cursor.first(); valid; valid = cursor.next()) {
+                    if (visitor.visit(cursor.key(), cursor.value())) return;
+                }
+                next = p.high;
+            } finally {
+                p.lock.readLock().unlock();
+            }
+            if (next == null) return;
+            from = next;
+        }
+    }
+
+    /*
+     * 读-改-写操作在key所在分区的写锁中完成，是原子的
+     * 传入的函数里面不能访问这个map
+     */
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return update(key, map -> map.putIfAbsent(key, value));
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        return update(key, map -> map.computeIfAbsent(key, mappingFunction));
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return update(key, map -> map.computeIfPresent(key, remappingFunction));
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return update(key, map -> map.compute(key, remappingFunction));
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return update(key, map -> map.merge(key, value, remappingFunction));
+    }
+
+    /**
+     * 分区数量
+     */
+    public int partitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * 在key所在分区的写锁中修改这个分区的TreeMap，维护size，必要的时候拆分分区
+     */
+    private V update(K key, Function<TreeMap<K, V>, V> operation) {
+        keyNotNullCheck(key);
+        Partition<K, V> p = lock(key, true);
+        V result;
+        boolean split;
+        try {
+            int oldSize = p.map.size();
+            result = operation.apply(p.map);
+            size.add(p.map.size() - oldSize);
+            split = shouldSplit(p);
+        } finally {
+            p.lock.writeLock().unlock();
+        }
+        if (split) split(p);
+        return result;
+    }
+
+    /**
+     * 找到key所在的分区并加锁
+     * 加锁之前分区可能刚好被拆分，所以加锁之后还要确认一下范围
+     */
+    private Partition<K, V> lock(K key, boolean write) {
+        while (true) {
+            Partition<K, V> p = route(partitions, key);
+            Lock lock = write ? p.lock.writeLock() : p.lock.readLock();
+            lock.lock();
+            if (p.high == null || compare(key, p.high) < 0) return p;
+            lock.unlock();
+        }
+    }
+
+    private Partition<K, V> lockFirst() {
+        Partition<K, V> p = partitions[0];
+        p.lock.readLock().lock();
+        return p;
+    }
+
+    /**
+     * 二分查找最后一个low <= key的分区
+     */
+    private Partition<K, V> route(Partition<K, V>[] partitions, K key) {
+        int begin = 1;
+        int end = partitions.length;
+        while (begin < end) {
+            int mid = (begin + end) >>> 1;
+            if (compare(key, partitions[mid].low) < 0) {
+                end = mid;
+            } else {
+                begin = mid + 1;
+            }
+        }
+        return partitions[begin - 1];
+    }
+
+    /**
+     * 调用时持有p的写锁
+     */
+    private boolean shouldSplit(Partition<K, V> p) {
+        int size = p.map.size();
+        if (size < MIN_SPLIT_SIZE) return false;
+        Partition<K, V>[] partitions = this.partitions;
+        if (partitions.length < targetPartitions) return true;
+        // 比平均值的2倍还多，认为发生了倾斜
+        return size > 2 * (this.size.sum() / partitions.length);
+    }
+
+    /**
+     * 在中位数处把p拆分成两个分区
+     */
+    private void split(Partition<K, V> p) {
+        // 已经有线程在拆分了，这次就算了，之后的put还会再触发
+        if (!splitLock.tryLock()) return;
+        try {
+            p.lock.writeLock().lock();
+            try {
+                if (!shouldSplit(p)) return;
+
+                int n = p.map.size();
+                K[] keys = (K[]) new Object[n];
+                V[] values = (V[]) new Object[n];
+                TreeMap<K, V>.Cursor cursor = p.map.cursor();
+                int i = 0;
+                for (boolean valid = cursor.first(); valid; valid = cursor.next()) {
+                    keys[i] = cursor.key();
+                    values[i] = cursor.value();
+                    i++;
+                }
+
+                // 已经有序，两半都可以在O(n)内重建
+                int half = n >> 1;
+                K mid = keys[half];
+                TreeMap<K, V> upper = TreeMap.fromSorted(
+                        Arrays.copyOfRange(keys, half, n), Arrays.copyOfRange(values, half, n), comparator);
+                p.map = TreeMap.fromSorted(
+                        Arrays.copyOf(keys, half), Arrays.copyOf(values, half), comparator);
+
+                Partition<K, V> q = new Partition<>(upper, mid, p.high);
+                p.high = mid;
+
+                Partition<K, V>[] old = partitions;
+                Partition<K, V>[] partitions = newPartitionArray(old.length + 1);
+                int index = 0;
+                for (Partition<K, V> partition : old) {
+                    partitions[index++] = partition;
+                    if (partition == p) partitions[index++] = q;
+                }
+                this.partitions = partitions;
+            } finally {
+                p.lock.writeLock().unlock();
+            }
+        } finally {
+            splitLock.unlock();
+        }
+    }
+
+    /**
+     * 样本排序之后取partitionCount - 1个分位点，重复的分位点只保留一个
+     */
+    private K[] splitPoints(K[] samples, int partitionCount) {
+        if (samples == null || samples.length == 0 || partitionCount == 1) {
+            return (K[]) new Object[0];
+        }
+        K[] sorted = Arrays.copyOf(samples, samples.length);
+        for (K sample : sorted) {
+            keyNotNullCheck(sample);
+        }
+        Arrays.sort(sorted, this::compare);
+        K[] splits = (K[]) new Object[partitionCount - 1];
+        int count = 0;
+        for (int i = 1; i < partitionCount; i++) {
+            K split = sorted[(int) ((long) i * sorted.length / partitionCount)];
+            if (count > 0 && compare(splits[count - 1], split) >= 0) continue;
+            splits[count++] = split;
+        }
+        // 第一个分区的low是null，分位点等于最小值没有意义
+        if (count > 0 && compare(splits[0], sorted[0]) <= 0) {
+            return Arrays.copyOfRange(splits, 1, count);
+        }
+        return Arrays.copyOf(splits, count);
+    }
+
+    private int compare(K k1, K k2) {
+        if (comparator != null) {
+            return comparator.compare(k1, k2);
+        }
+        return ((Comparable<K>) k1).compareTo(k2);
+    }
+
+    private void keyNotNullCheck(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null");
+        }
+    }
+
+    private static <K, V> Partition<K, V>[] newPartitionArray(int length) {
+        return (Partition<K, V>[]) new Partition<?, ?>[length];
+    }
+
+    private static class Partition<K, V> {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        /**
+         * 下面这些可变字段都只在持有lock的时候读写
+         */
+        TreeMap<K, V> map;
+        /**
+         * 包含low，第一个分区是null
+         */
+        final K low;
+        /**
+         * 不包含high，最后一个分区是null
+         */
+        K high;
+
+        Partition(TreeMap<K, V> map, K low, K high) {
+            this.map = map;
+            this.low = low;
+            this.high = high;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package map;
+
+import java.util.Comparator;
+
+/**
+ * 不可变（持久化）的红黑树映射
+ * put、remove不会修改原来的树，而是复制从根节点到修改位置这一条路径上的O(logn)个节点，
+ * 返回一个新的PersistentTreeMap，没有被修改的子树由新旧版本共享
+ * 任何版本一旦创建就不会再变化，可以被任意多个线程同时读取而不需要加锁
+ *
+ * TreeMap的afterPut、afterRemove需要通过parent指针往上调整，
+ * 而共享的子树没法拥有唯一的parent，所以这里用的是自顶向下递归调整的左倾红黑树（红色节点只能是左子节点），
+ * 它和2-3树一一对应，同样保证树高不超过2logn
+ */
+public class PersistentTreeMap<K, V> {
+
+    private static final boolean RED = RedBlackTree.RED;
+    private static final boolean BLACK = RedBlackTree.BLACK;
+
+    private final int size;
+    private final Node<K, V> root;
+    private final Comparator<K> comparator;
+
+    public PersistentTreeMap() {
+        this(null);
+    }
+
+    public PersistentTreeMap(Comparator<K> comparator) {
+        this(comparator, null, 0);
+    }
+
+    private PersistentTreeMap(Comparator<K> comparator, Node<K, V> root, int size) {
+        this.comparator = comparator;
+        this.root = root;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return 使用相同比较器的空映射
+     */
+    public PersistentTreeMap<K, V> clear() {
+        return size == 0 ? this : new PersistentTreeMap<>(comparator);
+    }
+
+    /**
+     * @return 添加之后的新版本，当前版本不变
+     */
+    public PersistentTreeMap<K, V> put(K key, V value) {
+        return put(key, value, new Change<>());
+    }
+
+    /**
+     * @param change 用来带回key原来是否存在、原来的value
+     */
+    PersistentTreeMap<K, V> put(K key, V value, Change<V> change) {
+        keyNotNullCheck(key);
+        Node<K, V> newRoot = put(root, key, value, change);
+        newRoot.color = BLACK;
+        return new PersistentTreeMap<>(comparator, newRoot, change.existed ? size : size + 1);
+    }
+
+    /**
+     * @return 删除之后的新版本，当前版本不变；key不存在就返回当前版本
+     */
+    public PersistentTreeMap<K, V> remove(K key) {
+        return remove(key, new Change<>());
+    }
+
+    /**
+     * @param change 用来带回key原来是否存在、原来的value
+     */
+    PersistentTreeMap<K, V> remove(K key, Change<V> change) {
+        // 自顶向下的删除要求key一定存在，所以还是要先查找一次
+        Node<K, V> node = node(key);
+        if (node == null) return this;
+        change.existed = true;
+        change.oldValue = node.value;
+
+        Node<K, V> newRoot = copy(root);
+        // 根节点的两个子节点都是黑色，先把根节点染红，保证往下走的时候当前节点不是2-节点
+        if (!isRed(newRoot.left) && !isRed(newRoot.right)) {
+            newRoot.color = RED;
+        }
+        newRoot = remove(newRoot, key);
+        if (newRoot != null) newRoot.color = BLACK;
+        return new PersistentTreeMap<>(comparator, newRoot, size - 1);
+    }
+
+    public V get(K key) {
+        Node<K, V> node = node(key);
+        return node != null ? node.value : null;
+    }
+
+    public boolean containsKey(K key) {
+        return node(key) != null;
+    }
+
+    public boolean containsValue(V value) {
+        return containsValue(root, value);
+    }
+
+    public K firstKey() {
+        return root == null ? null : min(root).key;
+    }
+
+    public K lastKey() {
+        Node<K, V> node = root;
+        if (node == null) return null;
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.key;
+    }
+
+    public void traversal(Map.Visitor<K, V> visitor) {
+        if (visitor == null) return;
+        visitor.stop = false;
+        traversal(root, visitor);
+    }
+
+    private void traversal(Node<K, V> node, Map.Visitor<K, V> visitor) {
+        if (node == null || visitor.stop) return;
+        traversal(node.left, visitor);
+        if (visitor.stop) return;
+        visitor.stop = visitor.visit(node.key, node.value);
+        traversal(node.right, visitor);
+    }
+
+    private boolean containsValue(Node<K, V> node, V value) {
+        if (node == null) return false;
+        if (valEquals(value, node.value)) return true;
+        return containsValue(node.left, value) || containsValue(node.right, value);
+    }
+
+    private Node<K, V> node(K key) {
+        keyNotNullCheck(key);
+        Node<K, V> node = root;
+        while (node != null) {
+            int cmp = compare(key, node.key);
+            if (cmp == 0) return node;
+            node = cmp > 0 ? node.right : node.left;
+        }
+        return null;
+    }
+
+    /*
+     * 下面的方法遵守同一个约定：传进来要修改的节点必须是本次操作复制出来的，
+     * 其他版本共享的节点只能读，要修改就先copy
+     */
+
+    private Node<K, V> put(Node<K, V> node, K key, V value, Change<V> change) {
+        if (node == null) return new Node<>(key, value);
+
+        node = copy(node);
+        int cmp = compare(key, node.key);
+        if (cmp < 0) {
+            node.left = put(node.left, key, value, change);
+        } else if (cmp > 0) {
+            node.right = put(node.right, key, value, change);
+        } else {
+            change.existed = true;
+            change.oldValue = node.value;
+            node.key = key;
+            node.value = value;
+        }
+        return balance(node);
+    }
+
+    /**
+     * 往下走的过程中保证当前节点或者它的左（右）子节点是红色，
+     * 这样删除的节点必然不是2-节点里的唯一元素，不会下溢
+     */
+    private Node<K, V> remove(Node<K, V> node, K key) {
+        node = copy(node);
+        if (compare(key, node.key) < 0) {
+            if (!isRed(node.left) && !isRed(node.left.left)) {
+                node = moveRedLeft(node);
+            }
+            node.left = remove(node.left, key);
+        } else {
+            if (isRed(node.left)) {
+                node = rotateRight(node);
+            }
+            if (compare(key, node.key) == 0 && node.right == null) {
+                return null;
+            }
+            if (!isRed(node.right) && !isRed(node.right.left)) {
+                node = moveRedRight(node);
+            }
+            if (compare(key, node.key) == 0) {
+                // 用后继节点的内容覆盖，再删除后继节点
+                Node<K, V> s = min(node.right);
+                node.key = s.key;
+                node.value = s.value;
+                node.right = removeMin(node.right);
+            } else {
+                node.right = remove(node.right, key);
+            }
+        }
+        return balance(node);
+    }
+
+    private Node<K, V> removeMin(Node<K, V> node) {
+        if (node.left == null) return null;
+        node = copy(node);
+        if (!isRed(node.left) && !isRed(node.left.left)) {
+            node = moveRedLeft(node);
+        }
+        node.left = removeMin(node.left);
+        return balance(node);
+    }
+
+    /**
+     * 从兄弟节点（或者父节点）借一个元素给左子节点
+     */
+    private Node<K, V> moveRedLeft(Node<K, V> node) {
+        flipColors(node);
+        if (isRed(node.right.left)) {
+            node.right = rotateRight(node.right);
+            node = rotateLeft(node);
+            flipColors(node);
+        }
+        return node;
+    }
+
+    /**
+     * 从兄弟节点（或者父节点）借一个元素给右子节点
+     */
+    private Node<K, V> moveRedRight(Node<K, V> node) {
+        flipColors(node);
+        if (isRed(node.left.left)) {
+            node = rotateRight(node);
+            flipColors(node);
+        }
+        return node;
+    }
+
+    /**
+     * 往上回溯的时候恢复左倾红黑树的性质
+     */
+    private Node<K, V> balance(Node<K, V> node) {
+        // 红色的右子节点旋转到左边
+        if (isRed(node.right) && !isRed(node.left)) {
+            node = rotateLeft(node);
+        }
+        // 连续两个红色的左子节点
+        if (isRed(node.left) && isRed(node.left.left)) {
+            node = rotateRight(node);
+        }
+        // 左右都是红色，相当于4-节点，分裂（上溢）
+        if (isRed(node.left) && isRed(node.right)) {
+            flipColors(node);
+        }
+        return node;
+    }
+
+    private Node<K, V> rotateLeft(Node<K, V> grand) {
+        Node<K, V> parent = copy(grand.right);
+        grand.right = parent.left;
+        parent.left = grand;
+        parent.color = grand.color;
+        grand.color = RED;
+        return parent;
+    }
+
+    private Node<K, V> rotateRight(Node<K, V> grand) {
+        Node<K, V> parent = copy(grand.left);
+        grand.left = parent.right;
+        parent.right = grand;
+        parent.color = grand.color;
+        grand.color = RED;
+        return parent;
+    }
+
+    private void flipColors(Node<K, V> node) {
+        node.color = !node.color;
+        node.left = copy(node.left);
+        node.left.color = !node.left.color;
+        node.right = copy(node.right);
+        node.right.color = !node.right.color;
+    }
+
+    private Node<K, V> min(Node<K, V> node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private Node<K, V> copy(Node<K, V> node) {
+        return new Node<>(node);
+    }
+
+    private int compare(K k1, K k2) {
+        if (comparator != null) {
+            return comparator.compare(k1, k2);
+        }
+        @SuppressWarnings("unchecked")
+        Comparable<? super K> comparable = (Comparable<? super K>) k1;
+        return comparable.compareTo(k2);
+    }
+
+    private void keyNotNullCheck(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("key must not be null");
+        }
+    }
+
+    private boolean valEquals(V v1, V v2) {
+        return v1 == null ? v2 == null : v1.equals(v2);
+    }
+
+    private boolean isRed(Node<K, V> node) {
+        return node != null && node.color == RED;
+    }
+
+    /**
+     * 一次put、remove修改之前的状态
+     */
+    static final class Change<V> {
+        boolean existed;
+        V oldValue;
+    }
+
+    private static class Node<K, V> {
+        K key;
+        V value;
+        boolean color = RED;
+        Node<K, V> left;
+        Node<K, V> right;
+
+        public Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public Node(Node<K, V> node) {
+            this.key = node.key;
+            this.value = node.value;
+            this.color = node.color;
+            this.left = node.left;
+            this.right = node.right;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package map;
+
+/**
+ * 红黑树的平衡逻辑：添加、删除节点之后的调整，以及旋转
+ * TreeMap、HashMap（每个桶是一棵红黑树）等共用这一份，节点继承RedBlackTree.Node即可
+ * 旋转之后根节点变了，通过replaceRoot交给子类处理（根节点存放的位置各不相同）；
+ * 子类需要在节点上维护额外的信息（比如子树的节点数量）的话，覆盖afterRotate
+ */
+abstract class RedBlackTree<N extends RedBlackTree.Node<N>> {
+
+    static final boolean RED = false;
+    static final boolean BLACK = true;
+
+    /**
+     * 旋转之后newRoot取代oldRoot成为了根节点
+     */
+    abstract void replaceRoot(N oldRoot, N newRoot);
+
+    /**
+     * 旋转完成之后调用，grand已经成为了parent的子节点
+     */
+    void afterRotate(N grand, N parent) {
+    }
+
+    final void afterPut(N node) {
+        N parent = node.parent;
+
+        // 添加的是根节点 或者上溢达到了根节点
+        if (parent == null) {
+            black(node);
+            return;
+        }
+
+        // 如果父节点是黑色，直接返回
+        if (isBlack(parent)) return;
+
+        // uncle节点
+        N uncle = parent.sibling();
+        // 祖父节点
+        N grand = red(parent.parent);
+        if (isRed(uncle)) { // 叔父节点是红色
+            black(parent);
+            black(uncle);
+            // 把祖父节点当做是新添加的节点
+            afterPut(grand);
+            return;
+        }
+
+        if (parent.isLeftChild()) { // L
+            if (node.isLeftChild()) { // LL
+                black(parent);
+            } else { // LR
+                black(node);
+                rotateLeft(parent);
+            }
+            rotateRight(grand);
+        } else { // R
+            if (node.isLeftChild()) { // RL
+                black(node);
+                rotateRight(parent);
+            } else { // RR
+                black(parent);
+            }
+            rotateLeft(grand);
+        }
+    }
+
+    /**
+     * @param node 被删除的节点（度为0），或者用以取代被删除节点的子节点
+     */
+    final void afterRemove(N node) {
+        // 如果删除的节点是红色
+        // 或者 用以取代删除节点的子节点是红色
+        if (isRed(node)) {
+            black(node);
+            return;
+        }
+        N parent = node.parent;
+        // 删除的是根节点
+        if (parent == null) return;
+
+        // 删除的是黑色叶子节点
+        // 判断被删除的node是左还是右
+        boolean left = parent.left == null || node.isLeftChild();
+        N sibling = left ? parent.right : parent.left;
+
+        if (left) { // 被删除的节点在左边，兄弟节点在右边
+            if (isRed(sibling)) { // 兄弟节点是红色
+                black(sibling);
+                red(parent);
+                rotateLeft(parent);
+                // 更换兄弟
+                sibling = parent.right;
+            }
+            // 兄弟节点必然是黑色
+            if (isBlack(sibling.left) && isBlack(sibling.right)) {
+                // 兄弟节点没有一个红色子节点，父节点要向下跟兄弟节点合并
+                boolean parentBlack = isBlack(parent);
+                black(parent);
+                red(sibling);
+                if (parentBlack) {
+                    afterRemove(parent);
+                }
+            } else { // 兄弟节点至少有一个红色子节点,向兄弟节点借元素
+                // 兄弟节点的左边是黑色,兄弟要先旋转
+                if (isBlack(sibling.right)) {
+                    rotateRight(sibling);
+                    sibling = parent.right;
+                }
+                color(sibling, colorOf(parent));
+                black(sibling.right);
+                black(parent);
+                rotateLeft(parent);
+            }
+        } else { // 被删除的节点在右边，兄弟节点在左边
+            if (isRed(sibling)) { // 兄弟节点是红色
+                black(sibling);
+                red(parent);
+                rotateRight(parent);
+                // 更换兄弟
+                sibling = parent.left;
+            }
+            // 兄弟节点必然是黑色
+            if (isBlack(sibling.left) && isBlack(sibling.right)) {
+                // 兄弟节点没有一个红色子节点，父节点要向下跟兄弟节点合并
+                boolean parentBlack = isBlack(parent);
+                black(parent);
+                red(sibling);
+                if (parentBlack) {
+                    afterRemove(parent);
+                }
+            } else { // 兄弟节点至少有一个红色子节点,向兄弟节点借元素
+                // 兄弟节点的左边是黑色,兄弟要先旋转
+                if (isBlack(sibling.left)) {
+                    rotateLeft(sibling);
+                    sibling = parent.left;
+                }
+                color(sibling, colorOf(parent));
+                black(sibling.left);
+                black(parent);
+                rotateRight(parent);
+            }
+        }
+    }
+
+    final N successor(N node) {
+        if (node == null) return null;
+        N p = node.right;
+        if (p != null) {
+            while (p.left != null) {
+                p = p.left;
+            }
+            return p;
+        }
+
+        while (node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    final N predecessor(N node) {
+        if (node == null) return null;
+        N p = node.left;
+        if (p != null) {
+            while (p.right != null) {
+                p = p.right;
+            }
+            return p;
+        }
+
+        while (node.parent != null && node == node.parent.left) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    final void rotateLeft(N grand) {
+        N parent = grand.right;
+        N child = parent.left;
+
+        grand.right = child;
+        parent.left = grand;
+
+        rotated(grand, parent, child);
+    }
+
+    final void rotateRight(N grand) {
+        N parent = grand.left;
+        N child = parent.right;
+
+        grand.left = child;
+        parent.right = grand;
+
+        rotated(grand, parent, child);
+    }
+
+    private void rotated(N grand, N parent, N child) {
+        // 让parent成为子树的根节点
+        parent.parent = grand.parent;
+        if (grand.isLeftChild()) {
+            grand.parent.left = parent;
+        } else if (grand.isRightChild()) {
+            grand.parent.right = parent;
+        } else {
+            replaceRoot(grand, parent);
+        }
+
+        // 更新child的parent
+        if (child != null) child.parent = grand;
+
+        //更新grand的parent
+        grand.parent = parent;
+
+        afterRotate(grand, parent);
+    }
+
+    final N color(N node, boolean color) {
+        if (node == null) return node;
+        node.color = color;
+        return node;
+    }
+
+    final N red(N node) {
+        return color(node, RED);
+    }
+
+    final N black(N node) {
+        return color(node, BLACK);
+    }
+
+    final boolean colorOf(N node) {
+        return node == null ? BLACK : node.color;
+    }
+
+    final boolean isBlack(N node) {
+        return colorOf(node) == BLACK;
+    }
+
+    final boolean isRed(N node) {
+        return colorOf(node) == RED;
+    }
+
+    abstract static class Node<N extends Node<N>> {
+        boolean color = RED;
+        N left;
+        N right;
+        N parent;
+
+        Node(N parent) {
+            this.parent = parent;
+        }
+
+        public boolean hasTwoChildren() {
+            return left != null && right != null;
+        }
+
+        public boolean isLeftChild() {
+            return parent != null && parent.left == this;
+        }
+
+        public boolean isRightChild() {
+            return parent != null && parent.right == this;
+        }
+
+        public N sibling() {
+            if (isLeftChild()) {
+                return parent.right;
+            }
+            if (isRightChild()) {
+                return parent.left;
+            }
+            return null;
+        }
+    }
+}
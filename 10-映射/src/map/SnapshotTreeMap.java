@@ -0,0 +1,111 @@
+package map;
+
+import java.util.Comparator;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 可以在O(1)内拍快照的可变映射
+ * 内部只保存一个PersistentTreeMap的引用，每次写操作都生成新版本再替换引用；
+ * 读操作和snapshot()直接读这个volatile引用，不需要加锁，写操作之间用synchronized互斥
+ */
+public class SnapshotTreeMap<K, V> implements Map<K, V> {
+
+    private volatile PersistentTreeMap<K, V> map;
+
+    public SnapshotTreeMap() {
+        this(null);
+    }
+
+    public SnapshotTreeMap(Comparator<K> comparator) {
+        map = new PersistentTreeMap<>(comparator);
+    }
+
+    /**
+     * 当前版本，之后的修改不会影响返回的快照，可以交给其他线程随意读取
+     */
+    public PersistentTreeMap<K, V> snapshot() {
+        return map;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public synchronized void clear() {
+        map = map.clear();
+    }
+
+    @Override
+    public synchronized V put(K key, V value) {
+        PersistentTreeMap.Change<V> change = new PersistentTreeMap.Change<>();
+        map = map.put(key, value, change);
+        return change.oldValue;
+    }
+
+    @Override
+    public V get(K key) {
+        return map.get(key);
+    }
+
+    @Override
+    public synchronized V remove(K key) {
+        PersistentTreeMap.Change<V> change = new PersistentTreeMap.Change<>();
+        map = map.remove(key, change);
+        return change.oldValue;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        return map.containsValue(value);
+    }
+
+    /*
+     * 读-改-写操作和其他写操作互斥，是原子的
+     */
+
+    @Override
+    public synchronized V putIfAbsent(K key, V value) {
+        return Map.super.putIfAbsent(key, value);
+    }
+
+    @Override
+    public synchronized V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        return Map.super.computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public synchronized V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return Map.super.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public synchronized V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return Map.super.compute(key, remappingFunction);
+    }
+
+    @Override
+    public synchronized V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return Map.super.merge(key, value, remappingFunction);
+    }
+
+    /**
+     * 遍历的是调用时的快照，遍历过程中的修改不会影响遍历
+     */
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        map.traversal(visitor);
+    }
+}
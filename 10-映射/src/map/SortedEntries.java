@@ -0,0 +1,34 @@
+package map;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 批量构建（fromSorted）时共用的Entry数组操作
+ */
+final class SortedEntries {
+
+    private SortedEntries() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> Map.Entry<K, V>[] newArray(int n) {
+        return (Map.Entry<K, V>[]) new Map.Entry<?, ?>[n];
+    }
+
+    /**
+     * 对前n个元素按key稳定排序，相同的key只保留最后一个
+     * @return 去重之后的数量
+     */
+    static <K, V> int sortAndDistinct(Map.Entry<K, V>[] entries, int n, Comparator<K> comparator) {
+        Arrays.sort(entries, 0, n, (e1, e2) -> comparator.compare(e1.key, e2.key));
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (count > 0 && comparator.compare(entries[count - 1].key, entries[i].key) == 0) {
+                count--;
+            }
+            entries[count++] = entries[i];
+        }
+        return count;
+    }
+}
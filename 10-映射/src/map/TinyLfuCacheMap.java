@@ -0,0 +1,319 @@
+package map;
+
+/**
+ * W-TinyLFU缓存
+ * 容量分为两部分：
+ * 1.窗口（约1%）：新节点先进入窗口，窗口内部是LRU，能接住突发的新热点
+ * 2.主区域（约99%）：分段LRU，分为试用区（20%）和保护区（80%），
+ *   试用区的节点再次被访问就晋升到保护区，保护区满了把最久没有访问的降级回试用区
+ * 窗口满了之后，被挤出的节点（候选者）要和试用区最久没有访问的节点（受害者）比较访问频率，
+ * 频率更高的才能留在主区域，只被访问过一次的节点（比如扫描）很难挤掉热点数据
+ * 访问频率由FrequencySketch估计，会定期老化
+ * 所有操作都是O(1)，不是线程安全的
+ */
+public class TinyLfuCacheMap<K, V> implements Map<K, V> {
+
+    public enum Region {
+        WINDOW, PROBATION, PROTECTED
+    }
+
+    private final int capacity;
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+
+    private final HashMap<K, Node<K, V>> map = new HashMap<>();
+    private final FrequencySketch<K> sketch;
+    private final AccessOrder<K, V> window = new AccessOrder<>();
+    private final AccessOrder<K, V> probation = new AccessOrder<>();
+    private final AccessOrder<K, V> protect = new AccessOrder<>();
+    private final LruCacheMap.EvictionListener<K, V> listener;
+
+    private final long[] hitCounts = new long[Region.values().length];
+    private long missCount;
+    private long evictionCount;
+
+    public TinyLfuCacheMap(int capacity) {
+        this(capacity, null);
+    }
+
+    public TinyLfuCacheMap(int capacity, LruCacheMap.EvictionListener<K, V> listener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.mainCapacity = capacity - windowCapacity;
+        this.protectedCapacity = (int) (mainCapacity * 0.8);
+        this.listener = listener;
+        this.sketch = new FrequencySketch<>(capacity);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * 清空不算淘汰，不会通知listener，访问频率保留
+     */
+    @Override
+    public void clear() {
+        map.clear();
+        window.clear();
+        probation.clear();
+        protect.clear();
+    }
+
+    @Override
+    public V put(K key, V value) {
+        sketch.increment(key);
+        Node<K, V> node = map.get(key);
+        if (node != null) {
+            V oldValue = node.value;
+            node.value = value;
+            onAccess(node);
+            return oldValue;
+        }
+
+        node = new Node<>(key, value);
+        map.put(key, node);
+        node.region = Region.WINDOW;
+        window.linkLast(node);
+        if (window.size > windowCapacity) {
+            // 窗口中最久没有访问的节点进入试用区，成为候选者
+            Node<K, V> candidate = window.first;
+            window.unlink(candidate);
+            candidate.region = Region.PROBATION;
+            probation.linkLast(candidate);
+            evict();
+        }
+        return null;
+    }
+
+    @Override
+    public V get(K key) {
+        sketch.increment(key);
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            missCount++;
+            return null;
+        }
+        hitCounts[node.region.ordinal()]++;
+        onAccess(node);
+        return node.value;
+    }
+
+    @Override
+    public V remove(K key) {
+        Node<K, V> node = map.remove(key);
+        if (node == null) return null;
+        order(node.region).unlink(node);
+        return node.value;
+    }
+
+    /**
+     * 不影响访问顺序和访问频率，也不计入命中率
+     */
+    @Override
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        boolean[] found = {false};
+        traversal(new Visitor<K, V>() {
+            @Override
+            public boolean visit(K key, V v) {
+                return found[0] = value == null ? v == null : value.equals(v);
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * 依次遍历窗口、试用区、保护区，每个区域从最久没有访问的开始
+     */
+    @Override
+    public void traversal(Visitor<K, V> visitor) {
+        if (visitor == null) return;
+        for (Region region : Region.values()) {
+            for (Node<K, V> node = order(region).first; node != null; node = node.next) {
+                if (visitor.visit(node.key, node.value)) return;
+            }
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long hitCount() {
+        long hitCount = 0;
+        for (long count : hitCounts) {
+            hitCount += count;
+        }
+        return hitCount;
+    }
+
+    /**
+     * 在region中命中的次数
+     */
+    public long hitCount(Region region) {
+        return hitCounts[region.ordinal()];
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    public double hitRate() {
+        long requests = hitCount() + missCount;
+        return requests == 0 ? 0 : (double) hitCount() / requests;
+    }
+
+    /**
+     * 在region中命中的次数占总请求次数的比例，各个区域加起来就是hitRate()
+     */
+    public double hitRate(Region region) {
+        long requests = hitCount() + missCount;
+        return requests == 0 ? 0 : (double) hitCount(region) / requests;
+    }
+
+    private void onAccess(Node<K, V> node) {
+        switch (node.region) {
+            case WINDOW:
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                // 晋升到保护区
+                probation.unlink(node);
+                node.region = Region.PROTECTED;
+                protect.linkLast(node);
+                if (protect.size > protectedCapacity) {
+                    // 保护区最久没有访问的降级到试用区
+                    Node<K, V> demoted = protect.first;
+                    protect.unlink(demoted);
+                    demoted.region = Region.PROBATION;
+                    probation.linkLast(demoted);
+                }
+                break;
+            case PROTECTED:
+                protect.moveToLast(node);
+                break;
+        }
+    }
+
+    /**
+     * 主区域超出容量的时候，试用区的候选者（尾部）和受害者（头部）比较频率，
+     * 候选者的频率更高才能留下，否则淘汰候选者
+     */
+    private void evict() {
+        while (probation.size + protect.size > mainCapacity) {
+            Node<K, V> victim = probation.first;
+            Node<K, V> candidate = probation.last;
+            if (victim != candidate && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim);
+            } else {
+                evict(candidate);
+            }
+        }
+    }
+
+    private void evict(Node<K, V> node) {
+        map.remove(node.key);
+        probation.unlink(node);
+        evictionCount++;
+        if (listener != null) {
+            listener.onEviction(node.key, node.value);
+        }
+    }
+
+    private AccessOrder<K, V> order(Region region) {
+        switch (region) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            default:
+                return protect;
+        }
+    }
+
+    private static class Node<K, V> {
+        K key;
+        V value;
+        Region region;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        public Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 按访问时间排序的双向链表，first是最久没有被访问的
+     */
+    private static class AccessOrder<K, V> {
+        Node<K, V> first;
+        Node<K, V> last;
+        int size;
+
+        void linkLast(Node<K, V> node) {
+            node.prev = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+            size++;
+        }
+
+        void unlink(Node<K, V> node) {
+            Node<K, V> prev = node.prev;
+            Node<K, V> next = node.next;
+
+            if (prev == null) {
+                first = next;
+            } else {
+                prev.next = next;
+            }
+
+            if (next == null) {
+                last = prev;
+            } else {
+                next.prev = prev;
+            }
+
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            if (node == last) return;
+            unlink(node);
+            linkLast(node);
+        }
+
+        void clear() {
+            first = null;
+            last = null;
+            size = 0;
+        }
+    }
+}
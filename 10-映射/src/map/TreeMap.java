@@ -1,19 +1,25 @@
 package map;
 
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
-public class TreeMap<K, V> implements Map<K, V> {
-
-    private static final Boolean RED = false;
-    private static final Boolean BlACK = true;
+public class TreeMap<K, V> extends RedBlackTree<TreeMap.Node<K, V>> implements NavigableMap<K, V> {
 
     private int size;
     private Node<K, V> root;
+    /**
+     * 结构被修改（添加、删除节点）的次数，用于Cursor的快速失败
+     */
+    private int modCount;
 
     private Comparator<K> comparator;
-
     public TreeMap() {
         this(null);
     }
@@ -22,6 +28,64 @@ public class TreeMap<K, V> implements Map<K, V> {
         this.comparator = comparator;
     }
 
+    /**
+     * 根据升序的entries在O(n)内构建红黑树
+     * 如果发现没有严格升序（乱序或者有重复的key），就先排序再构建，重复的key保留后出现的value
+     */
+    public static <K, V> TreeMap<K, V> fromSorted(Iterator<Entry<K, V>> entries) {
+        return fromSorted(entries, null);
+    }
+
+    public static <K, V> TreeMap<K, V> fromSorted(Iterator<Entry<K, V>> entries, Comparator<K> comparator) {
+        TreeMap<K, V> map = new TreeMap<>(comparator);
+        Entry<K, V>[] array = SortedEntries.newArray(16);
+        int n = 0;
+        boolean sorted = true;
+        while (entries.hasNext()) {
+            Entry<K, V> entry = entries.next();
+            map.keyNotNullCheck(entry.key);
+            if (n == array.length) {
+                array = Arrays.copyOf(array, n + (n >> 1));
+            }
+            if (sorted && n > 0 && map.compare(array[n - 1].key, entry.key) >= 0) {
+                sorted = false;
+            }
+            array[n++] = entry;
+        }
+        if (!sorted) n = SortedEntries.sortAndDistinct(array, n, map::compare);
+        map.buildFromSorted(array, n);
+        return map;
+    }
+
+    public static <K, V> TreeMap<K, V> fromSorted(K[] keys, V[] values) {
+        return fromSorted(keys, values, null);
+    }
+
+    /**
+     * 根据升序的keys、values在O(n)内构建红黑树，不会修改传进来的数组
+     */
+    public static <K, V> TreeMap<K, V> fromSorted(K[] keys, V[] values, Comparator<K> comparator) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys.length != values.length");
+        }
+        TreeMap<K, V> map = new TreeMap<>(comparator);
+        int n = keys.length;
+        boolean sorted = true;
+        for (int i = 0; i < n; i++) {
+            map.keyNotNullCheck(keys[i]);
+            if (sorted && i > 0 && map.compare(keys[i - 1], keys[i]) >= 0) {
+                sorted = false;
+            }
+        }
+        Entry<K, V>[] array = SortedEntries.newArray(n);
+        for (int i = 0; i < n; i++) {
+            array[i] = new Entry<>(keys[i], values[i]);
+        }
+        if (!sorted) n = SortedEntries.sortAndDistinct(array, n, map::compare);
+        map.buildFromSorted(array, n);
+        return map;
+    }
+
     @Override
     public int size() {
         return size;
@@ -36,43 +100,331 @@ public class TreeMap<K, V> implements Map<K, V> {
     public void clear() {
         root = null;
         size = 0;
+        modCount++;
     }
 
     @Override
     public V put(K key, V value) {
         keyNotNullCheck(key);
-        if (root == null) {
-            root = new Node<>(key, value, null);
-            size++;
-            afterPut(root);
+        Node<K, V> node = search(key);
+        int cmp = compareAt(key, node);
+        if (cmp == 0) {
+            node.key = key;
+            V oldValue = node.value;
+            node.value = value;
+            return oldValue;
+        }
+        insert(key, value, node, cmp);
+        return null;
+    }
+
+    /**
+     * 批量查询，values[i]是keys[i]对应的value（不存在是null）
+     * 先把keys排序，再按顺序查找：每次从上一个key的位置出发，往上爬到范围包含当前key的子树，
+     * 再从它往下找，相邻的key只走路径上不同的那一段，比逐个从根节点查找的比较次数少很多
+     */
+    public void getAll(K[] keys, V[] values) {
+        lengthCheck(keys, values);
+        Node<K, V> finger = null;
+        for (int i : sortedOrder(keys)) {
+            Node<K, V> node = search(keys[i], finger);
+            int cmp = compareAt(keys[i], node);
+            values[i] = cmp == 0 ? node.value : null;
+            finger = floor(node, cmp);
+        }
+    }
+
+    /**
+     * 批量查询
+     * @return 存在的key-value
+     */
+    public Map<K, V> getAll(K[] keys) {
+        HashMap<K, V> result = new HashMap<>();
+        Node<K, V> finger = null;
+        for (int i : sortedOrder(keys)) {
+            Node<K, V> node = search(keys[i], finger);
+            int cmp = compareAt(keys[i], node);
+            if (cmp == 0) {
+                result.put(node.key, node.value);
+            }
+            finger = floor(node, cmp);
+        }
+        return result;
+    }
+
+    /**
+     * 批量添加，相当于按顺序put(keys[i], values[i])，重复的key保留后出现的value
+     * 和getAll一样排序之后从上一个key的位置出发查找插入位置
+     */
+    public void putAll(K[] keys, V[] values) {
+        lengthCheck(keys, values);
+        Node<K, V> finger = null;
+        for (int i : sortedOrder(keys)) {
+            K key = keys[i];
+            Node<K, V> node = search(key, finger);
+            int cmp = compareAt(key, node);
+            if (cmp == 0) {
+                node.key = key;
+                node.value = values[i];
+                finger = node;
+            } else {
+                finger = insert(key, values[i], node, cmp);
+            }
+        }
+    }
+
+    /*
+     * 下面这些读-改-写操作都只从根节点往下查找一次：
+     * 找到了就直接修改这个节点，找不到就把新节点挂到查找停下来的父节点上，
+     * 只有真正添加、删除了节点才会调用afterPut、afterRemove
+     * 传入的函数不能修改这个map，否则抛出ConcurrentModificationException
+     */
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        keyNotNullCheck(key);
+        Node<K, V> node = search(key);
+        int cmp = compareAt(key, node);
+        if (cmp != 0) {
+            insert(key, value, node, cmp);
             return null;
         }
-        Node<K, V> parent = root;
+        V oldValue = node.value;
+        if (oldValue == null) {
+            node.value = value;
+        }
+        return oldValue;
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        keyNotNullCheck(key);
+        Node<K, V> node = search(key);
+        int cmp = compareAt(key, node);
+        if (cmp == 0 && node.value != null) return node.value;
+
+        int expectedModCount = modCount;
+        V newValue = mappingFunction.apply(key);
+        checkForComodification(expectedModCount);
+        if (newValue == null) return null;
+        if (cmp == 0) {
+            node.value = newValue;
+        } else {
+            insert(key, newValue, node, cmp);
+        }
+        return newValue;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        keyNotNullCheck(key);
+        Node<K, V> node = search(key);
+        if (compareAt(key, node) != 0 || node.value == null) return null;
+
+        int expectedModCount = modCount;
+        V newValue = remappingFunction.apply(key, node.value);
+        checkForComodification(expectedModCount);
+        if (newValue == null) {
+            remove(node);
+        } else {
+            node.value = newValue;
+        }
+        return newValue;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        keyNotNullCheck(key);
+        Node<K, V> node = search(key);
+        int cmp = compareAt(key, node);
+
+        int expectedModCount = modCount;
+        V newValue = remappingFunction.apply(key, cmp == 0 ? node.value : null);
+        checkForComodification(expectedModCount);
+        if (newValue == null) {
+            if (cmp == 0) remove(node);
+        } else if (cmp == 0) {
+            node.value = newValue;
+        } else {
+            insert(key, newValue, node, cmp);
+        }
+        return newValue;
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        keyNotNullCheck(key);
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        Node<K, V> node = search(key);
+        int cmp = compareAt(key, node);
+        if (cmp != 0) {
+            insert(key, value, node, cmp);
+            return value;
+        }
+
+        V newValue = value;
+        if (node.value != null) {
+            int expectedModCount = modCount;
+            newValue = remappingFunction.apply(node.value, value);
+            checkForComodification(expectedModCount);
+        }
+        if (newValue == null) {
+            remove(node);
+        } else {
+            node.value = newValue;
+        }
+        return newValue;
+    }
+
+    /**
+     * 从根节点往下查找key
+     * @return 找到了就是key对应的节点，否则是新节点要挂上去的父节点（树是空的返回null），
+     * 用compareAt区分这两种情况
+     */
+    private Node<K, V> search(K key) {
+        return search(key, null);
+    }
+
+    /**
+     * key和search停下来的节点比较的结果：0表示找到了，
+     * 否则新节点挂在node的右边（> 0）或者左边（< 0），树是空的（node为null）返回1
+     */
+    private int compareAt(K key, Node<K, V> node) {
+        return node == null ? 1 : compare(key, node.key);
+    }
+
+    /**
+     * 从finger出发查找key，finger为null就从根节点开始，否则要求finger.key <= key
+     * 一个子树中的key都小于它作为左子树所在的最近祖先，所以先往上爬，找到范围包含key的最低的子树：
+     * 从右子节点往上爬不用比较；从左子节点往上爬时，key小于父节点就说明当前找到的子树已经包含key，
+     * key大于父节点，就把父节点作为新的候选（它上面没有更小的上界的话就是它）
+     * @return 和search(K)一样
+     */
+    private Node<K, V> search(K key, Node<K, V> finger) {
         Node<K, V> node = root;
-        int cmp = 0;
+        if (finger != null) {
+            node = finger;
+            for (Node<K, V> child = finger; child.parent != null; child = child.parent) {
+                Node<K, V> parent = child.parent;
+                if (child == parent.right) continue;
+                int cmp = compare(key, parent.key);
+                if (cmp == 0) return parent;
+                if (cmp < 0) break;
+                node = parent;
+            }
+        }
+
+        Node<K, V> parent = null;
         while (node != null) {
             parent = node;
-            cmp = compare(key, node.key);
+            int cmp = compare(key, node.key);
             if (cmp > 0) {
                 node = node.right;
             } else if (cmp < 0) {
                 node = node.left;
             } else {
-                node.key = key;
-                V oldValue = node.value;
-                node.value = value;
-                return oldValue;
+                return node;
             }
         }
+        return parent;
+    }
+
+    /**
+     * key <= 查找的key的最大节点，作为下一次批量查找的起点
+     * @param node search停下来的节点
+     * @param cmp compareAt(key, node)
+     */
+    private Node<K, V> floor(Node<K, V> node, int cmp) {
+        // 停在左边说明key比node小，比node的前驱大
+        return cmp >= 0 ? node : predecessor(node);
+    }
+
+    /**
+     * 把新节点挂到search停下来的位置
+     * @param cmp key和parent比较的结果，见compareAt
+     * @return 新节点
+     */
+    private Node<K, V> insert(K key, V value, Node<K, V> parent, int cmp) {
         Node<K, V> newNode = new Node<>(key, value, parent);
-        if (cmp > 0) {
+        if (parent == null) {
+            root = newNode;
+        } else if (cmp > 0) {
             parent.right = newNode;
         } else {
             parent.left = newNode;
         }
         size++;
+        modCount++;
+        // 新节点的祖先们的子树都多了一个节点
+        for (Node<K, V> p = parent; p != null; p = p.parent) {
+            p.size++;
+        }
         afterPut(newNode);
-        return null;
+        return newNode;
+    }
+
+    private void checkForComodification(int expectedModCount) {
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    private void buildFromSorted(Entry<K, V>[] entries, int n) {
+        clear();
+        size = n;
+        root = buildFromSorted(entries, 0, n - 1, 0, redLevel(n), null);
+    }
+
+    /**
+     * 取中间的元素作为子树的根节点，左右两半递归构建
+     * 这样得到的是一棵除了最底层以外都是满的二叉树，
+     * 只把最底层（不完整的那一层）染成红色，其他都是黑色，就满足了红黑树的性质
+     */
+    private Node<K, V> buildFromSorted(Entry<K, V>[] entries,
+                                       int begin, int end, int level, int redLevel, Node<K, V> parent) {
+        if (begin > end) return null;
+        int mid = (begin + end) >>> 1;
+        Node<K, V> node = new Node<>(entries[mid].key, entries[mid].value, parent);
+        node.color = level == redLevel ? RED : BLACK;
+        node.size = end - begin + 1;
+        node.left = buildFromSorted(entries, begin, mid - 1, level + 1, redLevel, node);
+        node.right = buildFromSorted(entries, mid + 1, end, level + 1, redLevel, node);
+        return node;
+    }
+
+    /**
+     * n个节点构建出来的二叉树，最底层的层号（根节点是第0层）
+     * 如果最底层是满的，返回的层号不存在，也就不会有红色节点
+     */
+    private static int redLevel(int n) {
+        return 31 - Integer.numberOfLeadingZeros(n + 1);
+    }
+
+    /**
+     * keys按key排序之后的下标，相同的key保持原来的先后顺序；已经有序的话不用排序
+     */
+    private Integer[] sortedOrder(K[] keys) {
+        Integer[] order = new Integer[keys.length];
+        boolean sorted = true;
+        for (int i = 0; i < keys.length; i++) {
+            keyNotNullCheck(keys[i]);
+            order[i] = i;
+            if (sorted && i > 0 && compare(keys[i - 1], keys[i]) > 0) {
+                sorted = false;
+            }
+        }
+        if (!sorted) {
+            Arrays.sort(order, (i, j) -> compare(keys[i], keys[j]));
+        }
+        return order;
+    }
+
+    private void lengthCheck(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values must have the same length");
+        }
     }
 
     private int compare(K k1, K k2) {
@@ -88,49 +440,6 @@ public class TreeMap<K, V> implements Map<K, V> {
         }
     }
 
-    private void afterPut(Node<K, V> node) {
-        Node<K, V> parent = node.parent;
-
-        // 添加的是根节点 或者上溢达到了根节点
-        if (parent == null) {
-            black(node);
-            return;
-        }
-
-        // 如果父节点是黑色，直接返回
-        if (isBlack(parent)) return;
-
-        // uncle节点
-        Node<K, V> uncle = parent.sibling();
-        // 祖父节点
-        Node<K, V> grand = red(parent.parent);
-        if (isRed(uncle)) { // 叔父节点是红色
-            black(parent);
-            black(uncle);
-            // 把祖父节点当做是新添加的节点
-            afterPut(grand);
-            return;
-        }
-
-        if (parent.isLeftChild()) { // L
-            if (node.isLeftChild()) { // LL
-                black(parent);
-            } else { // LR
-                black(node);
-                rotateLeft(parent);
-            }
-            rotateRight(grand);
-        } else { // R
-            if (node.isLeftChild()) { // RL
-                black(node);
-                rotateRight(parent);
-            } else { // RR
-                black(parent);
-            }
-            rotateLeft(grand);
-        }
-    }
-
     @Override
     public V get(K key) {
         Node<K, V> node = node(key);
@@ -164,16 +473,238 @@ public class TreeMap<K, V> implements Map<K, V> {
     @Override
     public void traversal(Visitor<K, V> visitor) {
         if (visitor == null) return;
-        traversal(root, visitor);
+        // 沿着parent指针找后继，不用递归，总共只走O(n)步
+        for (Node<K, V> node = first(); node != null; node = successor(node)) {
+            if (visitor.visit(node.key, node.value)) return;
+        }
+    }
+
+    /**
+     * 创建一个游标，需要先调用seek、first或者last定位
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    @Override
+    public K firstKey() {
+        return key(first());
+    }
+
+    @Override
+    public K lastKey() {
+        return key(last());
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return key(floorNode(key, true));
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return key(ceilingNode(key, true));
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return key(floorNode(key, false));
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return key(ceilingNode(key, false));
+    }
+
+    @Override
+    public K pollFirst() {
+        Node<K, V> node = first();
+        if (node == null) return null;
+        K key = node.key;
+        remove(node);
+        return key;
+    }
+
+    @Override
+    public K pollLast() {
+        Node<K, V> node = last();
+        if (node == null) return null;
+        K key = node.key;
+        remove(node);
+        return key;
+    }
+
+    /**
+     * [fromKey, toKey)范围内的视图
+     */
+    public Map<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    /**
+     * fromKey到toKey范围内的视图
+     * 视图不会复制数据，对视图的修改会反映到原来的TreeMap上，反之亦然
+     */
+    public Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        keyNotNullCheck(fromKey);
+        keyNotNullCheck(toKey);
+        if (compare(fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return new SubMap(false, fromKey, fromInclusive, false, toKey, toInclusive);
+    }
+
+    /**
+     * 小于toKey的部分的视图
+     */
+    public Map<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    public Map<K, V> headMap(K toKey, boolean inclusive) {
+        keyNotNullCheck(toKey);
+        return new SubMap(true, null, true, false, toKey, inclusive);
+    }
+
+    /**
+     * 大于等于fromKey的部分的视图
+     */
+    public Map<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
     }
 
-    private void traversal(Node<K, V> node, Visitor<K, V> visitor) {
-        if (node == null || visitor.stop) return;
-        traversal(node.left, visitor);
-        if (visitor.stop) return;
-        visitor.stop = visitor.visit(node.key, node.value);
-        traversal(node.right, visitor);
+    public Map<K, V> tailMap(K fromKey, boolean inclusive) {
+        keyNotNullCheck(fromKey);
+        return new SubMap(false, fromKey, inclusive, true, null, true);
+    }
+
+    /**
+     * 第k小的key（k从0开始）
+     */
+    public K select(int k) {
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("Index:" + k + ", Size:" + size);
+        }
+        Node<K, V> node = root;
+        while (true) {
+            int leftSize = sizeOf(node.left);
+            if (k < leftSize) {
+                node = node.left;
+            } else if (k > leftSize) {
+                k -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.key;
+            }
+        }
+    }
 
+    /**
+     * 比key小的key的数量，key存在的话就是它的排名（从0开始），select(rank(key))等于key
+     */
+    public int rank(K key) {
+        return countLess(key, false);
+    }
+
+    /**
+     * [fromKey, toKey]范围内key的数量
+     */
+    public int countRange(K fromKey, K toKey) {
+        keyNotNullCheck(toKey);
+        int count = countLess(toKey, true) - countLess(fromKey, false);
+        return Math.max(count, 0);
+    }
+
+    /**
+     * 小于（等于）key的key的数量，往右走的时候左子树和当前节点都比key小
+     * @param inclusive 是否要算上等于key的
+     */
+    private int countLess(K key, boolean inclusive) {
+        keyNotNullCheck(key);
+        Node<K, V> node = root;
+        int count = 0;
+        while (node != null) {
+            int cmp = compare(key, node.key);
+            if (cmp == 0) {
+                return count + sizeOf(node.left) + (inclusive ? 1 : 0);
+            }
+            if (cmp > 0) {
+                count += sizeOf(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    private int sizeOf(Node<K, V> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private K key(Node<K, V> node) {
+        return node == null ? null : node.key;
+    }
+
+    private Node<K, V> first() {
+        Node<K, V> node = root;
+        if (node == null) return null;
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private Node<K, V> last() {
+        Node<K, V> node = root;
+        if (node == null) return null;
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    /**
+     * 小于（等于）key的最大节点
+     * 只走一条从根到叶子的路径，往右走的时候记下当前节点作为候选
+     * @param inclusive 是否可以等于key
+     */
+    private Node<K, V> floorNode(K key, boolean inclusive) {
+        keyNotNullCheck(key);
+        Node<K, V> node = root;
+        Node<K, V> result = null;
+        while (node != null) {
+            int cmp = compare(key, node.key);
+            if (cmp == 0 && inclusive) return node;
+            if (cmp > 0) {
+                result = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 大于（等于）key的最小节点
+     * @param inclusive 是否可以等于key
+     */
+    private Node<K, V> ceilingNode(K key, boolean inclusive) {
+        keyNotNullCheck(key);
+        Node<K, V> node = root;
+        Node<K, V> result = null;
+        while (node != null) {
+            int cmp = compare(key, node.key);
+            if (cmp == 0 && inclusive) return node;
+            if (cmp < 0) {
+                result = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return result;
     }
 
     private boolean valEquals(V v1, V v2) {
@@ -183,6 +714,7 @@ public class TreeMap<K, V> implements Map<K, V> {
     private V remove(Node<K, V> node) {
         if (node == null) return null;
         size--;
+        modCount++;
         V oldValue = node.value;
         if (node.hasTwoChildren()) { // 度为2
             Node<K, V> s = successor(node);
@@ -192,6 +724,10 @@ public class TreeMap<K, V> implements Map<K, V> {
         }
 
         Node<K, V> replacement = node.left != null ? node.left : node.right;
+        // 被删除节点的祖先们的子树都少了一个节点，要在旋转之前更新
+        for (Node<K, V> p = node.parent; p != null; p = p.parent) {
+            p.size--;
+        }
 
         if (replacement != null) { // 度为1
             replacement.parent = node.parent;
@@ -220,212 +756,278 @@ public class TreeMap<K, V> implements Map<K, V> {
         return oldValue;
     }
 
-    private void afterRemove(Node<K, V> node) {
-        // 如果删除的节点是红色
-        // 或者 用以取代删除节点的子节点是红色
-        if (isRed(node)) {
-            black(node);
-            return;
+    /**
+     * 供ConcurrentTreeMap乐观读使用：树可能正在被其他线程修改，读到的指针可能不一致甚至成环，
+     * 所以最多只往下走maxDepth层，结果是否可信由调用方校验
+     * @return key对应的value，找不到或者超过了maxDepth层返回notFound
+     */
+    Object probe(K key, int maxDepth, Object notFound) {
+        Node<K, V> node = root;
+        for (int depth = 0; node != null && depth < maxDepth; depth++) {
+            int cmp = compare(key, node.key);
+            if (cmp == 0) return node.value;
+            node = cmp > 0 ? node.right : node.left;
         }
-        Node<K, V> parent = node.parent;
-        // 删除的是根节点
-        if (parent == null) {
-            return;
+        return notFound;
+    }
+
+    private Node<K, V> node(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int cmp = compare(key, node.key);
+            if (cmp == 0) return node;
+            if (cmp > 0) node = node.right;
+            if (cmp < 0) node = node.left;
         }
-        // 删除的是黑色叶子节点
+        return null;
+    }
 
-        // 判断被删除的node是左还是右
-        boolean left = (parent.left == null || node.isLeftChild());
-        Node<K, V> sibling = left ? parent.right : parent.left;
+    @Override
+    void replaceRoot(Node<K, V> oldRoot, Node<K, V> newRoot) {
+        root = newRoot;
+    }
 
-        if (left) { // 被删除的节点在左边，兄弟节点在右边
-            if (isRed(sibling)) { // 兄弟节点是红色
-                black(sibling);
-                red(parent);
-                rotateLeft(parent);
-                // 更换兄弟
-                sibling = parent.right;
-            }
-            // 兄弟节点必然是黑色
-            if (isBlack(sibling.left) && isBlack(sibling.right)) {
-                // 兄弟节点没有一个红色子节点，父节点要向下跟兄弟节点合并
-                boolean parentBlack = isBlack(parent);
-                black(parent);
-                red(sibling);
-                if (parentBlack) {
-                    afterRemove(parent);
-                }
-            } else { // 兄弟节点至少有一个红色子节点,向兄弟节点借元素
-                // 兄弟节点的左边是黑色,兄弟要先旋转
-                if (isBlack(sibling.right)) {
-                    rotateRight(sibling);
-                    sibling = parent.right;
-                }
-                color(sibling, colorOf(parent));
-                black(sibling.right);
-                black(parent);
-                rotateLeft(parent);
+    @Override
+    void afterRotate(Node<K, V> grand, Node<K, V> parent) {
+        // 先更新下面的grand，再更新上面的parent
+        grand.updateSize();
+        parent.updateSize();
+    }
+
+    /**
+     * 范围视图，通过floorNode、ceilingNode在O(logn)内定位到边界，
+     * 再沿着后继节点往后走，遍历k个元素的复杂度是O(logn + k)
+     */
+    private class SubMap implements Map<K, V> {
+        private final boolean fromStart;
+        private final K lo;
+        private final boolean loInclusive;
+        private final boolean toEnd;
+        private final K hi;
+        private final boolean hiInclusive;
+
+        SubMap(boolean fromStart, K lo, boolean loInclusive,
+               boolean toEnd, K hi, boolean hiInclusive) {
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+        }
+
+        @Override
+        public int size() {
+            // 两个边界的排名相减，O(logn)
+            int from = fromStart ? 0 : countLess(lo, !loInclusive);
+            int to = toEnd ? TreeMap.this.size : countLess(hi, hiInclusive);
+            return Math.max(to - from, 0);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return lowest() == null;
+        }
+
+        @Override
+        public void clear() {
+            // 删除度为2的节点时会挪动后继节点的内容，所以每次都重新定位
+            Node<K, V> node;
+            while ((node = lowest()) != null) {
+                TreeMap.this.remove(node);
             }
-        } else { // 被删除的节点在右边，兄弟节点在左边
-            if (isRed(sibling)) { // 兄弟节点是红色
-                black(sibling);
-                red(parent);
-                rotateRight(parent);
-                // 更换兄弟
-                sibling = parent.left;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            keyNotNullCheck(key);
+            if (!inRange(key)) {
+                throw new IllegalArgumentException("key out of range");
             }
-            // 兄弟节点必然是黑色
-            if (isBlack(sibling.left) && isBlack(sibling.right)) {
-                // 兄弟节点没有一个红色子节点，父节点要向下跟兄弟节点合并
-                boolean parentBlack = isBlack(parent);
-                black(parent);
-                red(sibling);
-                if (parentBlack) {
-                    afterRemove(parent);
-                }
-            } else { // 兄弟节点至少有一个红色子节点,向兄弟节点借元素
-                // 兄弟节点的左边是黑色,兄弟要先旋转
-                if (isBlack(sibling.left)) {
-                    rotateLeft(sibling);
-                    sibling = parent.left;
-                }
-                color(sibling, colorOf(parent));
-                black(sibling.left);
-                black(parent);
-                rotateRight(parent);
+            return TreeMap.this.put(key, value);
+        }
+
+        @Override
+        public V get(K key) {
+            keyNotNullCheck(key);
+            return inRange(key) ? TreeMap.this.get(key) : null;
+        }
+
+        @Override
+        public V remove(K key) {
+            keyNotNullCheck(key);
+            return inRange(key) ? TreeMap.this.remove(key) : null;
+        }
+
+        @Override
+        public boolean containsKey(K key) {
+            keyNotNullCheck(key);
+            return inRange(key) && TreeMap.this.containsKey(key);
+        }
+
+        @Override
+        public boolean containsValue(V value) {
+            for (Node<K, V> node = lowest(); node != null; node = next(node)) {
+                if (valEquals(value, node.value)) return true;
             }
+            return false;
         }
-    }
 
-    private Node<K, V> successor(Node<K, V> node) {
-        if (node == null) return null;
-        Node<K, V> p = node.right;
-        if (p != null) {
-            while (p.left != null) {
-                p = p.left;
+        @Override
+        public void traversal(Visitor<K, V> visitor) {
+            if (visitor == null) return;
+            for (Node<K, V> node = lowest(); node != null; node = next(node)) {
+                if (visitor.visit(node.key, node.value)) return;
             }
-            return p;
         }
 
-        while (node.parent != null && node == node.parent.right) {
-            node = node.parent;
+        /**
+         * 范围内最小的节点
+         */
+        private Node<K, V> lowest() {
+            Node<K, V> node = fromStart ? first() : ceilingNode(lo, loInclusive);
+            return node == null || tooHigh(node.key) ? null : node;
         }
-        return node.parent;
-    }
 
-    private Node<K, V> node(K key) {
-        Node<K, V> node = root;
-        while (node != null) {
-            int cmp = compare(key, node.key);
-            if (cmp == 0) return node;
-            if (cmp > 0) node = node.right;
-            if (cmp < 0) node = node.left;
+        /**
+         * 范围内node的下一个节点
+         */
+        private Node<K, V> next(Node<K, V> node) {
+            node = successor(node);
+            return node == null || tooHigh(node.key) ? null : node;
         }
-        return null;
-    }
 
-    private void rotateLeft(Node<K, V> grand) {
-        Node<K, V> parent = grand.right;
-        Node<K, V> child = parent.left;
+        private boolean inRange(K key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
 
-        grand.right = child;
-        parent.left = grand;
+        private boolean tooLow(K key) {
+            if (fromStart) return false;
+            int cmp = compare(key, lo);
+            return cmp < 0 || (cmp == 0 && !loInclusive);
+        }
 
-        afterRotate(grand, parent, child);
+        private boolean tooHigh(K key) {
+            if (toEnd) return false;
+            int cmp = compare(key, hi);
+            return cmp > 0 || (cmp == 0 && !hiInclusive);
+        }
     }
 
-    private void rotateRight(Node<K, V> grand) {
-        Node<K, V> parent = grand.left;
-        Node<K, V> child = parent.right;
+    /**
+     * 游标：停在某个节点上，通过parent指针前后移动，每一步都不会创建对象
+     * 定位之后如果map的结构被修改了（不是通过这个游标），再移动或者读取会抛出ConcurrentModificationException
+     * 一个游标可以反复seek重复使用
+     */
+    public class Cursor {
+        private Node<K, V> node;
+        private int expectedModCount = modCount;
 
-        grand.left = child;
-        parent.right = grand;
+        private Cursor() {
+        }
 
-        afterRotate(grand, parent, child);
-    }
+        /**
+         * 定位到大于等于key的最小节点
+         * @return 是否定位到了节点
+         */
+        public boolean seek(K key) {
+            return reset(ceilingNode(key, true));
+        }
 
-    private void afterRotate(Node<K, V> grand, Node<K, V> parent, Node<K, V> child) {
-        // 让parent成为子树的根节点
-        parent.parent = grand.parent;
-        if (grand.isLeftChild()) {
-            grand.parent.left = parent;
-        } else if (grand.isRightChild()) {
-            grand.parent.right = parent;
-        } else {
-            root = parent;
+        /**
+         * 定位到最小的节点
+         */
+        public boolean first() {
+            return reset(TreeMap.this.first());
         }
 
-        // 更新child的parent
-        if (child != null) child.parent = grand;
+        /**
+         * 定位到最大的节点
+         */
+        public boolean last() {
+            return reset(TreeMap.this.last());
+        }
 
-        //更新grand的parent
-        grand.parent = parent;
-    }
+        /**
+         * 移动到后继节点
+         * @return 是否还停在某个节点上
+         */
+        public boolean next() {
+            checkForComodification();
+            if (node == null) return false;
+            node = successor(node);
+            return node != null;
+        }
 
-    private Node<K, V> color(Node<K, V> node, boolean color) {
-        if (node == null) return node;
-        node.color = color;
-        return node;
-    }
+        /**
+         * 移动到前驱节点
+         * @return 是否还停在某个节点上
+         */
+        public boolean prev() {
+            checkForComodification();
+            if (node == null) return false;
+            node = predecessor(node);
+            return node != null;
+        }
 
-    private Node<K, V> red(Node<K, V> node) {
-        return color(node, RED);
-    }
+        public boolean isValid() {
+            return node != null;
+        }
 
-    private Node<K, V> black(Node<K, V> node) {
-        return color(node, BlACK);
-    }
+        public K key() {
+            return current().key;
+        }
 
-    private boolean colorOf(Node<K, V> node) {
-        return node == null ? BlACK : node.color;
-    }
+        public V value() {
+            return current().value;
+        }
 
-    private boolean isBlack(Node<K, V> node) {
-        return colorOf(node) == BlACK;
-    }
+        public V setValue(V value) {
+            Node<K, V> node = current();
+            V oldValue = node.value;
+            node.value = value;
+            return oldValue;
+        }
 
-    private boolean isRed(Node<K, V> node) {
-        return colorOf(node) == RED;
+        private boolean reset(Node<K, V> node) {
+            this.node = node;
+            expectedModCount = modCount;
+            return node != null;
+        }
+
+        private Node<K, V> current() {
+            checkForComodification();
+            if (node == null) throw new NoSuchElementException();
+            return node;
+        }
+
+        private void checkForComodification() {
+            if (expectedModCount != modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
     }
 
-    private static class Node<K, V> {
+    static class Node<K, V> extends RedBlackTree.Node<Node<K, V>> {
         K key;
         V value;
-        boolean color = RED;
-        Node<K, V> left;
-        Node<K, V> right;
-        Node<K, V> parent;
+        /**
+         * 以这个节点为根的子树的节点数量
+         */
+        int size = 1;
 
         public Node(K key, V value, Node<K, V> parent) {
+            super(parent);
             this.key = key;
             this.value = value;
-            this.parent = parent;
-        }
-
-        public boolean isLeaf() {
-            return left == null && right == null;
         }
 
-        public boolean hasTwoChildren() {
-            return left != null && right != null;
+        public void updateSize() {
+            size = 1 + (left == null ? 0 : left.size) + (right == null ? 0 : right.size);
         }
 
-        public boolean isLeftChild() {
-            return parent != null && parent.left == this;
-        }
-
-        public boolean isRightChild() {
-            return parent != null && parent.right == this;
-        }
-
-        public Node<K, V> sibling() {
-            if (isLeftChild()) {
-                return parent.right;
-            }
-            if (isRightChild()) {
-                return parent.left;
-            }
-            return null;
+        public boolean isLeaf() {
+            return left == null && right == null;
         }
     }
 }
@@ -0,0 +1,52 @@
+package set;
+
+import map.ConcurrentTreeMap;
+import map.Map;
+
+/**
+ * 线程安全的TreeSet，contains使用乐观读
+ */
+public class ConcurrentTreeSet<E> implements Set<E> {
+
+    Map<E, Object> map = new ConcurrentTreeMap<>();
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    public boolean contains(E element) {
+        return map.containsKey(element);
+    }
+
+    @Override
+    public void add(E element) {
+        map.put(element, null);
+    }
+
+    @Override
+    public void remove(E element) {
+        map.remove(element);
+    }
+
+    @Override
+    public void traversal(Visitor<E> visitor) {
+        map.traversal(new Map.Visitor<E, Object>() {
+            @Override
+            public boolean visit(E key, Object value) {
+                return visitor.visit(key);
+            }
+        });
+    }
+}